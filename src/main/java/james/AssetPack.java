@@ -0,0 +1,311 @@
+package james;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import org.lwjgl.BufferUtils;
+
+/**
+ * Single file holding every runtime asset (models, shaders, fonts, images and sounds), built by the packager's "pack" command.
+ * When the pack exists in \\target it is memory mapped on first use and assets are handed out as slices of it, so startup
+ * is one sequential read instead of opening every file. Without a pack, assets are read from their loose files. Loose files
+ * are never mapped, as on Windows a live mapping keeps the file from being saved again until the buffer is collected.
+ *
+ * The pack's layout, all little-endian:
+ * <pre>
+ * magic, version, entry count, entry[entry count], data
+ * </pre>
+ * where each entry, sorted by name, is
+ * <pre>
+ * name byte length (int), name (UTF-8, zero padded to 4 bytes), offset (long), length (int), hash (long)
+ * </pre>
+ * Names are paths relative to \\resources, such as "shaders\\world.vert". The hash is the first 8 bytes of the
+ * contents' SHA-256 hash. Every entry's data starts on an 8 byte boundary.
+ */
+public class AssetPack {
+
+    public static final String PACK_NAME = "assets.pack";
+    /**
+     * Where the pack is built, relative to the working directory. It is build output and stays out of \\resources, so a
+     * stale pack is never mistaken for a source file and never shadows edits to the loose files.
+     */
+    public static final String PACK_PATH = "\\target\\" + PACK_NAME;
+
+    /**
+     * The bytes "ASPK" read as a little-endian int.
+     */
+    private static final int PACK_MAGIC = 0x4B505341;
+    private static final int PACK_VERSION = 1;
+
+    /**
+     * Files in \\resources that are not needed at runtime and are left out of the pack.
+     */
+    private static final String[] SOURCE_EXTENSIONS = { ".ply", ".vox", ".psd", ".manifest", ".pack" };
+
+    private static boolean opened;
+    private static MappedByteBuffer pack;
+    private static String[] names;
+    private static long[] offsets;
+    private static int[] lengths;
+    private static long[] hashes;
+
+    /**
+     * @return whether assets are read from the pack rather than from loose files.
+     */
+    public static boolean IsPacked(){
+        Open();
+        return pack != null;
+    }
+
+    /**
+     * Gets an asset's contents, without copying them out of the pack. The returned buffer is independent of other calls,
+     * so assets may be read from several threads at once. Loose files are read to a heap buffer, see ReadNative() for
+     * native code that needs a direct one.
+     * @param path
+     *      - the asset's path, relative to \\resources.
+     * @return
+     *      - the asset's contents, in little-endian byte order.
+     */
+    public static ByteBuffer Read(String path){
+        Open();
+        if(pack != null){
+            int entry = Arrays.binarySearch(names, path);
+            if(entry < 0) throw new Error("asset " + path + " is not in " + PACK_NAME);
+            return pack.slice((int)offsets[entry], lengths[entry]).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        return ReadFile(new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + path));
+    }
+
+    /**
+     * Gets an asset's contents in a direct buffer, as native code such as stb_image reads them. Assets in the pack are
+     * slices of its mapping, loose files are copied to native memory.
+     * @param path
+     *      - the asset's path, relative to \\resources.
+     * @return
+     *      - a direct little-endian buffer over the asset's bytes.
+     */
+    public static ByteBuffer ReadNative(String path){
+        ByteBuffer contents = Read(path);
+        if(contents.isDirect()) return contents;
+        ByteBuffer result = BufferUtils.createByteBuffer(contents.remaining());
+        result.put(0, contents, contents.position(), contents.remaining());
+        return result.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the asset's contents decoded as UTF-8 text.
+     */
+    public static String ReadText(String path){
+        return StandardCharsets.UTF_8.decode(Read(path)).toString();
+    }
+
+    /**
+     * Lists the assets directly inside a directory.
+     * @param directory
+     *      - the directory, relative to \\resources.
+     * @param extension
+     *      - the file extension to list, including the dot.
+     * @return
+     *      - the assets' paths relative to \\resources, sorted by name.
+     */
+    public static String[] List(String directory, String extension){
+        Open();
+        String prefix = directory + "\\";
+        ArrayList<String> result = new ArrayList<>();
+        if(pack != null){
+            for(String name : names){
+                if(name.startsWith(prefix) && name.endsWith(extension) && name.indexOf('\\', prefix.length()) < 0) result.add(name);
+            }
+            return result.toArray(new String[0]);
+        }
+
+        File[] files = new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + directory).listFiles((dir, name) -> name.endsWith(extension));
+        if(files == null) return new String[0];
+        for(File file : files) if(file.isFile()) result.add(prefix + file.getName());
+        result.sort(null);
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Maps the pack and reads its table of contents, if there is a pack. Only the first call does anything.
+     */
+    private static synchronized void Open(){
+        if(opened) return;
+        opened = true;
+
+        String filePath  = new File("").getAbsolutePath() + PACK_PATH;
+        if(!new File(filePath).exists()){
+            System.out.println("reading assets from loose files in " + new File("").getAbsolutePath() + Main.RESOURCE_PATH);
+            return;
+        }
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE) throw new Error("asset pack " + filePath + " is too large to map");
+            buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("could not read asset pack " + filePath + ", reading loose files instead");
+            return;
+        }
+        //read the whole pack in one sequential pass, rather than faulting its pages in as assets are used
+        buffer.load();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        if(buffer.remaining() < 12 || buffer.getInt() != PACK_MAGIC) throw new Error("invalid asset pack " + filePath);
+        int version = buffer.getInt();
+        if(version != PACK_VERSION) throw new Error("unsupported asset pack version " + String.valueOf(version) + " in " + filePath);
+
+        int entryCount = buffer.getInt();
+        names = new String[entryCount];
+        offsets = new long[entryCount];
+        lengths = new int[entryCount];
+        hashes = new long[entryCount];
+        for(int i = 0; i < entryCount; i++){
+            byte[] nameBytes = new byte[buffer.getInt()];
+            buffer.get(nameBytes);
+            buffer.position((buffer.position() + 3) & ~3);
+            names[i] = new String(nameBytes, StandardCharsets.UTF_8);
+            offsets[i] = buffer.getLong();
+            lengths[i] = buffer.getInt();
+            hashes[i] = buffer.getLong();
+            if(offsets[i] < 0 || lengths[i] < 0 || offsets[i] + lengths[i] > buffer.capacity()) throw new Error("invalid asset pack " + filePath);
+            if(i > 0 && names[i - 1].compareTo(names[i]) >= 0) throw new Error("unsorted asset pack " + filePath);
+        }
+        pack = buffer;
+        System.out.println("reading assets from pack " + filePath + ", hot reloading is off");
+    }
+
+    /**
+     * Writes every runtime asset in \\resources to the pack in \\target, replacing any existing pack. Model sources are left out, and
+     * .voxel files are stored in the current binary layout, whatever layout they are in on disk.
+     * @return
+     *      - the number of assets in the pack.
+     */
+    public static int BuildPack(){
+        String resourcePath = new File("").getAbsolutePath() + Main.RESOURCE_PATH;
+        TreeMap<String, File> files = new TreeMap<>();
+        CollectFiles(new File(resourcePath), "", files);
+
+        //encode the entries and lay them out after the table of contents
+        String[] entryNames = files.keySet().toArray(new String[0]);
+        ByteBuffer[] contents = new ByteBuffer[entryNames.length];
+        byte[][] nameBytes = new byte[entryNames.length][];
+        long tocSize = 12;
+        for(int i = 0; i < entryNames.length; i++){
+            String name = entryNames[i];
+            if(name.endsWith(".voxel")){
+                VoxelData mesh = VoxelPackager.LoadVoxelMesh(name);
+                contents[i] = VoxelPackager.EncodeVoxelMesh(mesh.name, mesh);
+            }
+            else contents[i] = ReadFile(files.get(name));
+            nameBytes[i] = name.getBytes(StandardCharsets.UTF_8);
+            tocSize += 4 + ((nameBytes[i].length + 3) & ~3) + 20;
+        }
+
+        long size = (tocSize + 7) & ~7;
+        long[] entryOffsets = new long[entryNames.length];
+        for(int i = 0; i < entryNames.length; i++){
+            entryOffsets[i] = size;
+            size = (size + contents[i].remaining() + 7) & ~7;
+        }
+        if(size > Integer.MAX_VALUE) throw new Error("assets do not fit in one asset pack");
+
+        ByteBuffer buffer = ByteBuffer.allocate((int)size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(PACK_MAGIC);
+        buffer.putInt(PACK_VERSION);
+        buffer.putInt(entryNames.length);
+        for(int i = 0; i < entryNames.length; i++){
+            buffer.putInt(nameBytes[i].length);
+            buffer.put(nameBytes[i]);
+            buffer.position((buffer.position() + 3) & ~3);
+            buffer.putLong(entryOffsets[i]);
+            buffer.putInt(contents[i].remaining());
+            buffer.putLong(Hash(contents[i]));
+        }
+        for(int i = 0; i < entryNames.length; i++) buffer.put((int)entryOffsets[i], contents[i], contents[i].position(), contents[i].remaining());
+        buffer.position(0);
+
+        File packFile = new File(new File("").getAbsolutePath() + PACK_PATH);
+        packFile.getParentFile().mkdirs();
+        String filePath = packFile.getAbsolutePath();
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            System.out.println("could not save file " + filePath + " to the system");
+            e.printStackTrace();
+        }
+
+        //map the new pack on next use
+        synchronized(AssetPack.class){
+            opened = false;
+            pack = null;
+        }
+        return entryNames.length;
+    }
+
+    /**
+     * Checks every entry of the pack against its stored hash.
+     * @return
+     *      - the names of the entries whose contents do not match, empty if the pack is intact or there is no pack.
+     */
+    public static String[] VerifyPack(){
+        ArrayList<String> result = new ArrayList<>();
+        if(!IsPacked()) return new String[0];
+        for(int i = 0; i < names.length; i++){
+            if(Hash(Read(names[i])) != hashes[i]) result.add(names[i]);
+        }
+        return result.toArray(new String[0]);
+    }
+
+    private static void CollectFiles(File directory, String prefix, TreeMap<String, File> files){
+        File[] list = directory.listFiles();
+        if(list == null) return;
+        for(File file : list){
+            if(file.isDirectory()){
+                CollectFiles(file, prefix + file.getName() + "\\", files);
+                continue;
+            }
+            boolean source = false;
+            for(String extension : SOURCE_EXTENSIONS) source |= file.getName().endsWith(extension);
+            if(!source) files.putIfAbsent(prefix + file.getName(), file);
+        }
+    }
+
+    private static ByteBuffer ReadFile(File file){
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new Error("could not read file " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the first 8 bytes of the SHA-256 hash of the buffer's remaining contents, which are left unconsumed.
+     */
+    private static long Hash(ByteBuffer contents){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("SHA-256 is not available", e);
+        }
+        digest.update(contents.duplicate());
+        return ByteBuffer.wrap(digest.digest()).getLong();
+    }
+}
@@ -1,6 +1,5 @@
 package james.Audio;
 
-import java.io.File;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Deque;
@@ -16,7 +15,7 @@ import org.lwjgl.openal.ALCCapabilities;
 import org.lwjgl.system.MemoryUtil;
 //import org.lwjgl.openal.ALCapabilities;
 
-import james.Main;
+import james.AssetPack;
 
 public class AudioManager {
     private final int SOURCEPOOL_INTERFACE_SIZE_DEFAULT = 10;
@@ -72,16 +71,8 @@ public class AudioManager {
      */
     private void LoadSounds(){
         //get all files ending with .wav extension, load  noted files
-        File directory = new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + "audio");
-        if (directory.isDirectory()) {
-            File[] fileList = directory.listFiles((dir, name) -> name.endsWith(".wav"));
-            if (fileList != null) {
-                for (File file : fileList) {
-                    if (file.isFile()) {
-                        LoadSound(file.getName());
-                    }
-                }
-            }
+        for (String path : AssetPack.List("audio", ".wav")) {
+            LoadSound(path.substring(path.lastIndexOf("\\") + 1));
         }
     }
 
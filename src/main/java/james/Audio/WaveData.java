@@ -1,10 +1,7 @@
 package james.Audio;
 
-import java.io.BufferedInputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 import javax.sound.sampled.AudioFormat;
@@ -15,7 +12,7 @@ import javax.sound.sampled.UnsupportedAudioFileException;
 import org.lwjgl.BufferUtils;
 import org.lwjgl.openal.AL10;
 
-import james.Main;
+import james.AssetPack;
 
 public class WaveData {
 
@@ -64,19 +61,14 @@ public class WaveData {
 
 
 	public static WaveData create(String file){
-		file = new File("").getAbsolutePath() + Main.RESOURCE_PATH + "audio\\" + file;
-		InputStream stream;
-		try{
-			stream = new FileInputStream(file);
-		} catch(IOException e) {
-			e.printStackTrace();
-			return null;
-		}
+		//AudioSystem only reads streams, so the sound is copied out of its (possibly packed) buffer
+		ByteBuffer contents = AssetPack.Read("audio\\" + file);
+		byte[] bytes = new byte[contents.remaining()];
+		contents.get(bytes);
 
-		InputStream bufferedInput = new BufferedInputStream(stream);
 		AudioInputStream audioStream = null;
 		try {
-			audioStream = AudioSystem.getAudioInputStream(bufferedInput);
+			audioStream = AudioSystem.getAudioInputStream(new ByteArrayInputStream(bytes));
 		} catch (UnsupportedAudioFileException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -174,6 +174,14 @@ public class Camera implements GameObject{
         if(!Input.GetKeyDown(Input.KEY_T)) targPosition.z = (float)Math.min(WORLD_SIZE * 0.5f + maxRadius - 0.5f * scWorldHeight, Math.max(WORLD_SIZE * 0.5 - maxRadius + 0.5f * scWorldHeight, targPosition.z));
     }
 
+    /**
+     * @return the number of screen pixels one world unit spans. The projection is orthographic, so this is the same
+     *      everywhere on screen.
+     */
+    public float PixelsPerUnit(){
+        return (float)Main.windowY / (scSize.y * distance);
+    }
+
     public void FixedUpdate() {
         if(GameScene.state == GameState.Paused) return;
 
@@ -1,7 +1,5 @@
 package james;
 
-import java.util.HashMap;
-
 import static org.lwjgl.opengl.GL44C.*;
 
 /**
@@ -11,12 +9,26 @@ import static org.lwjgl.opengl.GL44C.*;
  * For the underlying hashing, colors are hashed in the rgba_8888 format (see james\\Color.java).
  * 
  * An index of "0" will always be used to refer to the clear/null color (RGBA 0,0,0,0)
- * Maximum of 255 colors, although may be changed if needed.
+ * Maximum of 255 colors, although may be changed if needed. Content with more colors is quantized to fit by SetPalette()
+ * (see james\\PaletteBuilder.java), and a color added to a full palette takes the index of its nearest palette color.
  */
 public class ColorPalette {
     public static ColorPalette instance;
 
-    private HashMap<Integer, Integer> colorIndexMap;
+    /**
+     * Number of palette entries, including the clear color.
+     */
+    public static final int PALETTE_SIZE = 256;
+
+    /**
+     * Palette index of each known color. Several colors share an index once the palette is quantized.
+     */
+    private IntIntMap colorIndexMap;
+
+    /**
+     * Number of used palette entries, including the clear color.
+     */
+    private int colorCount;
 
     private int colorDataUBO;
     private boolean reqBufferUpdate;
@@ -29,21 +41,23 @@ public class ColorPalette {
     public ColorPalette(){
         instance = this;
 
-        colorIndexMap = new HashMap<>(256);
-        colors = new Color[256];
-        colorIndexMap.put(0, new Color(0.0, 0.0, 0.0, 0.0).rgba_8_8_8_8);
+        colorIndexMap = new IntIntMap(PALETTE_SIZE);
+        colors = new Color[PALETTE_SIZE];
+        colorIndexMap.Put(new Color(0.0, 0.0, 0.0, 0.0).rgba_8_8_8_8, 0);
+        colorCount = 1;
 
         //create global buffer for color array
         colorDataUBO = glGenBuffers();
         glBindBuffer(GL_UNIFORM_BUFFER, colorDataUBO);
-        glBufferData(GL_UNIFORM_BUFFER, (long)(256 * 16), GL_DYNAMIC_DRAW);
+        glBufferData(GL_UNIFORM_BUFFER, (long)(PALETTE_SIZE * 16), GL_DYNAMIC_DRAW);
         glBindBufferBase(GL_UNIFORM_BUFFER, 3, colorDataUBO);
 
         UpdateColorUBO();
     }
 
     /**
-     * Gets the color's index in the palette. Adds to palette if not already entered, returning "0" if the palette is full.
+     * Gets the color's index in the palette. Adds to palette if not already entered, returning the index of the nearest
+     * palette color if the palette is full.
      * @param color
      *      - the color whose index is in question.
      * @return
@@ -54,22 +68,64 @@ public class ColorPalette {
     }
 
     /**
-     * Gets the color's index in the palette. Adds to palette if not already entered, returning "0" if the palette is full.
+     * Gets the color's index in the palette. Adds to palette if not already entered, returning the index of the nearest
+     * palette color if the palette is full.
      * UpdateColorUBO() must be called for any changes to the  palette to be reflected in the uniform GLSL buffer.
      * @param rgba_8888
      *      - the color whose index is in question, in the format rgba_8888.
      * @return
      *      - \in [0, 255]\qed
      */
-    public static int GetColorPaletteIndex(Integer rgba_8888){
-        if(!instance.colorIndexMap.containsKey(rgba_8888)){
-            if(instance.colorIndexMap.size() >= 255) return 0;
-            instance.colors[instance.colorIndexMap.size()] = new Color(rgba_8888);
-            instance.colorIndexMap.put(rgba_8888, instance.colorIndexMap.size());
+    public static int GetColorPaletteIndex(int rgba_8888){
+        int index = instance.colorIndexMap.Get(rgba_8888, -1);
+        if(index >= 0) return index;
+
+        if(instance.colorCount < PALETTE_SIZE){
+            index = instance.colorCount++;
+            instance.colors[index] = new Color(rgba_8888);
             instance.reqBufferUpdate = true;
-            return instance.colorIndexMap.size() - 1;
         }
-        return instance.colorIndexMap.get(rgba_8888);
+        else index = NearestColorIndex(rgba_8888);
+        instance.colorIndexMap.Put(rgba_8888, index);
+        return index;
+    }
+
+    /**
+     * Replaces the palette with one built from the content's colors. Must be called before any color index is handed out,
+     * as the indices of the previous palette are no longer valid.
+     * @param builder
+     *      - the built palette, with at most 255 colors.
+     */
+    public static void SetPalette(PaletteBuilder builder){
+        if(builder.palette.length >= PALETTE_SIZE) throw new Error("color palette holds at most " + String.valueOf(PALETTE_SIZE - 1) + " colors");
+
+        instance.colors = new Color[PALETTE_SIZE];
+        for(int i = 0; i < builder.palette.length; i++) instance.colors[i + 1] = new Color(builder.palette[i]);
+        instance.colorCount = builder.palette.length + 1;
+
+        instance.colorIndexMap = new IntIntMap(builder.paletteIndices.Size() + 1);
+        instance.colorIndexMap.Put(0, 0);
+        for(int color : builder.paletteIndices.Keys()) instance.colorIndexMap.Put(color, builder.paletteIndices.Get(color, 0) + 1);
+        instance.reqBufferUpdate = true;
+    }
+
+    /**
+     * @return the index of the palette color nearest to the color in the Oklab color space, never the clear color.
+     */
+    private static int NearestColorIndex(int rgba_8888){
+        float[] lab = new float[8];
+        PaletteBuilder.ToOklab(rgba_8888, lab, 0);
+        int nearest = 1;
+        float nearestDistance = Float.MAX_VALUE;
+        for(int i = 1; i < instance.colorCount; i++){
+            PaletteBuilder.ToOklab(instance.colors[i].rgba_8_8_8_8, lab, 4);
+            float distance = PaletteBuilder.Distance(lab, 0, lab, 4);
+            if(distance < nearestDistance){
+                nearest = i;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
     }
 
     /**
@@ -79,8 +135,8 @@ public class ColorPalette {
         if(!instance.reqBufferUpdate) return;
         instance.reqBufferUpdate = false;
         
-        float[] colorPaletteData = new float[256 * 4];
-        for(int i = 1; i < 256; i++){
+        float[] colorPaletteData = new float[PALETTE_SIZE * 4];
+        for(int i = 1; i < PALETTE_SIZE; i++){
             if(instance.colors[i] == null) continue;
             //System.out.println(String.valueOf(i) + " -- " + colors[i].toString());
             colorPaletteData[i * 4 + 0] = instance.colors[i].red;
@@ -1,189 +1,372 @@
 package james;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
-import org.joml.Vector3f;
-import org.joml.Vector3i;
+import org.joml.Matrix4fc;
 import org.joml.Vector4f;
 
-public class CullingQuadTree implements GameObject, WindowResizeListener {
+/**
+ * Quad tree over the world's xz-plane, used to cull whole regions of cull volumes against the camera at once.
+ *
+ * The tree is complete and implicit: node 0 is the root, and the children of node n are nodes 4n + 1 to 4n + 4, so a level's
+ * nodes are contiguous and in Morton (z-order) order. Nothing but the nodes' padded bounds is stored per node, in one float
+ * array. Volumes are int handles into primitive arrays, and each volume is filed under the smallest aligned node containing
+ * its bounding box, found by index arithmetic. The volumes of each node are a range of an array sorted by node, which is
+ * rebuilt on the next update after volumes were added or removed.
+ *
+ * Nodes are tested against the six planes of the camera's view frustum, which are extracted once per update: a node is culled
+ * if its box's corner furthest along a plane's normal (the p-vertex) is outside of that plane. When even the nearest corner
+ * (the n-vertex) is inside, the whole subtree is inside the plane, and the node's children skip it. The tree is updated every
+ * frame and the pass allocates nothing.
+ *
+ * Rather than reporting each volume's state, the tree reports changes: every volume belongs to a VisibilityChanges list, to
+ * which its owner's id for it is appended when it is shown or hidden. Finding the hidden volumes only walks the volumes that
+ * were visible at the last update, so an update costs in proportion to the visible volumes, not to all of them.
+ *
+ * Visibility is tracked for two views, each with its own changes: the camera's, and the sun's for shadow casters. The sun's
+ * view is the frustum of sunViewProjMatrix without its near plane, which extrudes it toward the light along
+ * Lighting.activeShadowDirection, so casters between the sun and the shadow map's frustum still cast shadows into it.
+ */
+public class CullingQuadTree implements GameObject {
     private static final int WORLD_SIZE = 512;
+    private static final int MIN_NODE_WIDTH = 2;
     private static final float WORLD_Y_MIN = 0.0f;
     private static final float WORLD_Y_MAX = 8.0f;
     private static final float PADDING_X_POS = 20.0f;
     private static final float PADDING_Z_POS = 0.0f;
     private static final float PADDING_X_NEG = 20.0f;
     private static final float PADDING_Z_NEG = 2.0f;
-    private static final float CAMERA_MOVE_UPDATE_THRESHOLD = 1.5f;
-    private static final float CAMERA_DISTANCE_UPDATE_THRESHOLD = 1.5f;
+
+    /**
+     * Number of levels, from the root (WORLD_SIZE wide) down to the leaves (MIN_NODE_WIDTH wide).
+     */
+    private static final int LEVEL_COUNT = Integer.numberOfTrailingZeros(WORLD_SIZE / MIN_NODE_WIDTH) + 1;
+    private static final int NODE_COUNT = ((1 << (2 * LEVEL_COUNT)) - 1) / 3;
+    private static final int FIRST_LEAF = ((1 << (2 * (LEVEL_COUNT - 1))) - 1) / 3;
+
+    /**
+     * Plane mask with a bit set for each of the six frustum planes.
+     */
+    private static final int ALL_PLANES = 0x3F;
+
+    /**
+     * Index of the near plane (Matrix4fc.PLANE_NZ) in the plane order.
+     */
+    private static final int NEAR_PLANE = 4;
+
+    /**
+     * The views visibility is tracked for.
+     */
+    public static final int CAMERA_VIEW = 0;
+    public static final int SHADOW_VIEW = 1;
+    private static final int VIEW_COUNT = 2;
 
     public static CullingQuadTree instance;
-    public boolean treeUpdated;
-    
-    private QuadTreeNode root;
-    private ArrayList<CullVolume> volumes;
-    private boolean cullVolumesChanged;
 
-    private Vector3f lastUpdateCameraPos;
-    private float lastUpdateCameraDistance;
+    /**
+     * Padded bounds of each node, as min x, min z, max x, max z.
+     */
+    private float[] nodeBounds;
+
+    /**
+     * Node of each volume handle, or -1 if the handle is free.
+     */
+    private int[] volumeNodes;
+    private int[] volumeIds;
+    private int volumeCapacity;
+    private int[] freeVolumes;
+    private int freeVolumeCount;
+
+    /**
+     * Volume handles sorted by node. The volumes of node n are sortedVolumes[nodeVolumeStarts[n], nodeVolumeStarts[n + 1]).
+     */
+    private int[] sortedVolumes;
+    private int[] nodeVolumeStarts;
+    private int[] sortPositions;
+    private boolean volumesMoved;
+
+    /**
+     * Per view, indexed by view then volume: the list each volume's visibility changes are added to, the number of the last
+     * update at which it was visible (added volumes count as visible at the last update), and its position in
+     * visibleVolumes if it is visible.
+     */
+    private VisibilityChanges[][] volumeOwners;
+    private int[][] volumeVisibleUpdates;
+    private int[][] volumeVisibleIndices;
+
+    /**
+     * Per view, the volumes visible at the last update, and the list of the update in progress.
+     */
+    private int[][] visibleVolumes;
+    private int[][] nextVisibleVolumes;
+    private int[] visibleCounts;
+    private int nextVisibleCount;
+    private int updateCount;
+
+    /**
+     * The views' frustum planes as a, b, c, d of ax + by + cz + d >= 0 for points inside, 24 floats per view, in the order
+     * of Matrix4fc's PLANE_NX to PLANE_PZ.
+     */
+    private float[] planes;
+    private Vector4f plane;
 
     public CullingQuadTree(){
         Game.AddObject(this);
-        Game.AddWindowResizeListener(this);
         instance = this;
-        volumes = new ArrayList<>();
-        root = new QuadTreeNode(0, 0, WORLD_SIZE);
-        cullVolumesChanged = true;
+
+        nodeBounds = new float[NODE_COUNT * 4];
+        for(int level = 0, first = 0; level < LEVEL_COUNT; level++, first = first * 4 + 1){
+            int w = WORLD_SIZE >> level;
+            for(int i = 0; i < 1 << (2 * level); i++){
+                int x = CompactBits(i) * w;
+                int z = CompactBits(i >>> 1) * w;
+                int node = first + i;
+                nodeBounds[node * 4 + 0] = -PADDING_X_NEG + (float)x;
+                nodeBounds[node * 4 + 1] = -PADDING_Z_NEG + (float)z;
+                nodeBounds[node * 4 + 2] = PADDING_X_POS + (float)(x + w);
+                nodeBounds[node * 4 + 3] = PADDING_Z_POS + (float)(z + w);
+            }
+        }
+
+        volumeCapacity = 0;
+        volumeNodes = new int[64];
+        volumeIds = new int[64];
+        volumeOwners = new VisibilityChanges[VIEW_COUNT][64];
+        volumeVisibleUpdates = new int[VIEW_COUNT][64];
+        volumeVisibleIndices = new int[VIEW_COUNT][64];
+        visibleVolumes = new int[VIEW_COUNT][64];
+        nextVisibleVolumes = new int[VIEW_COUNT][64];
+        visibleCounts = new int[VIEW_COUNT];
+        freeVolumes = new int[64];
+        sortedVolumes = new int[0];
+        nodeVolumeStarts = new int[NODE_COUNT + 1];
+        sortPositions = new int[NODE_COUNT];
+        planes = new float[VIEW_COUNT * 24];
+        plane = new Vector4f();
     }
 
     public void UpdateCullTree(){
-        //set all volumes to be culled
-        for(CullVolume volume : volumes){
-            volume.isCulled = true;
+        if(volumesMoved) SortVolumes();
+
+        ExtractPlanes(CAMERA_VIEW, Camera.instance.viewProjMatrix);
+        ExtractPlanes(SHADOW_VIEW, Camera.instance.sunViewProjMatrix);
+
+        updateCount++;
+        UpdateView(CAMERA_VIEW, ALL_PLANES);
+        UpdateView(SHADOW_VIEW, ALL_PLANES & ~(1 << NEAR_PLANE));
+    }
+
+    private void ExtractPlanes(int view, Matrix4fc viewProjMatrix){
+        for(int i = 0; i < 6; i++){
+            viewProjMatrix.frustumPlane(Matrix4fc.PLANE_NX + i, plane);
+            planes[view * 24 + i * 4 + 0] = plane.x;
+            planes[view * 24 + i * 4 + 1] = plane.y;
+            planes[view * 24 + i * 4 + 2] = plane.z;
+            planes[view * 24 + i * 4 + 3] = plane.w;
         }
-        UpdateCullTreeRecur(root);
-        
-        //set all volumes' previous cull values and check if tree was updated (cull-culling!)
-        treeUpdated = false;
-        for(CullVolume volume : volumes){
-            if(volume.prevIsCulled != volume.isCulled) treeUpdated = true;
-            volume.prevIsCulled = volume.isCulled;
+    }
+
+    /**
+     * @param planeMask
+     *      - the view's planes to test against.
+     */
+    private void UpdateView(int view, int planeMask){
+        nextVisibleCount = 0;
+        UpdateCullTreeRecur(view, 0, planeMask);
+
+        //the volumes that were visible and were not reached this time are now hidden
+        int[] visible = visibleVolumes[view];
+        int[] visibleUpdates = volumeVisibleUpdates[view];
+        VisibilityChanges[] owners = volumeOwners[view];
+        for(int i = 0; i < visibleCounts[view]; i++){
+            int volume = visible[i];
+            if(visibleUpdates[volume] != updateCount) owners[volume].Add(~volumeIds[volume]);
         }
+
+        visibleVolumes[view] = nextVisibleVolumes[view];
+        nextVisibleVolumes[view] = visible;
+        visibleCounts[view] = nextVisibleCount;
     }
-    public void UpdateCullTreeRecur(QuadTreeNode node){
-        if(node.isCulled()) return;
 
-        for(CullVolume volume : node.volumes){
-            if(!volume.prevIsCulled) treeUpdated = true;
-            volume.isCulled = false;
+    /**
+     * @param planeMask
+     *      - the planes the node must still be tested against, those its parent is not entirely inside of.
+     */
+    private void UpdateCullTreeRecur(int view, int node, int planeMask){
+        planeMask = TestNode(view, node, planeMask);
+        if(planeMask < 0) return;
+
+        int[] visibleUpdates = volumeVisibleUpdates[view];
+        int[] visibleIndices = volumeVisibleIndices[view];
+        int[] nextVisible = nextVisibleVolumes[view];
+        for(int i = nodeVolumeStarts[node]; i < nodeVolumeStarts[node + 1]; i++){
+            int volume = sortedVolumes[i];
+            if(visibleUpdates[volume] != updateCount - 1) volumeOwners[view][volume].Add(volumeIds[volume]);
+            visibleUpdates[volume] = updateCount;
+            visibleIndices[volume] = nextVisibleCount;
+            nextVisible[nextVisibleCount++] = volume;
         }
-        
-        if(node.children == null) return;
-        else for(int i = 0; i < 4; i++) UpdateCullTreeRecur(node.children[i]);
+
+        if(node >= FIRST_LEAF) return;
+        for(int i = 1; i <= 4; i++) UpdateCullTreeRecur(view, node * 4 + i, planeMask);
     }
 
-    public CullVolume AddVolume(int x, int z, int w){
-        cullVolumesChanged = true;
+    /**
+     * Adds a volume to the tree. It starts out visible in every view, and a change is reported at the next update if it is not.
+     * @param owner
+     *      - the list the volume's visibility changes in the camera's view are added to.
+     * @param shadowOwner
+     *      - the list the volume's visibility changes in the sun's view are added to.
+     * @param id
+     *      - the owner's id for the volume, reported in the changes. At least 0.
+     * @return
+     *      - the volume's handle, valid until it is removed.
+     */
+    public int AddVolume(int x, int z, int w, VisibilityChanges owner, VisibilityChanges shadowOwner, int id){
+        volumesMoved = true;
 
-        if(x < 0 || x + w > WORLD_SIZE || z < 0 || z + w > WORLD_SIZE) 
+        if(x < 0 || x + w > WORLD_SIZE || z < 0 || z + w > WORLD_SIZE)
             throw new Error("culling volume (" + String.valueOf(x) + ", " + String.valueOf(z) + ") x " + String.valueOf(w) + " is outside world bounds");
 
-        //calculate bounding quad tree box
-        Vector3i bdBox = calculateVolumeBox(x, z, w);
-        CullVolume volume = new CullVolume(bdBox.x, bdBox.y, bdBox.z);
-        
-        //add the volume to the quad tree
-        int bdX = bdBox.x; int bdZ = bdBox.y; int bdW = bdBox.z;
-        QuadTreeNode current = root;
-        while(current.x != bdX || current.z != bdZ || current.w != bdW){
-            if(bdX < current.x + current.w / 2 && bdZ < current.z + current.w / 2){
-                current = current.children[0];
-            }
-            else if(bdX < current.x + current.w / 2){
-                current = current.children[2];
+        int volume;
+        if(freeVolumeCount > 0) volume = freeVolumes[--freeVolumeCount];
+        else {
+            if(volumeCapacity == volumeNodes.length){
+                int capacity = volumeCapacity * 2;
+                volumeNodes = Arrays.copyOf(volumeNodes, capacity);
+                volumeIds = Arrays.copyOf(volumeIds, capacity);
+                freeVolumes = Arrays.copyOf(freeVolumes, capacity);
+                for(int view = 0; view < VIEW_COUNT; view++){
+                    volumeOwners[view] = Arrays.copyOf(volumeOwners[view], capacity);
+                    volumeVisibleUpdates[view] = Arrays.copyOf(volumeVisibleUpdates[view], capacity);
+                    volumeVisibleIndices[view] = Arrays.copyOf(volumeVisibleIndices[view], capacity);
+                    visibleVolumes[view] = Arrays.copyOf(visibleVolumes[view], capacity);
+                    nextVisibleVolumes[view] = Arrays.copyOf(nextVisibleVolumes[view], capacity);
+                }
             }
-            else if(bdZ  < current.z + current.w / 2){
-                current = current.children[1];
-            }
-            else current = current.children[3];
+            volume = volumeCapacity++;
+        }
+        volumeNodes[volume] = VolumeNode(x, z, w);
+        volumeIds[volume] = id;
+        volumeOwners[CAMERA_VIEW][volume] = owner;
+        volumeOwners[SHADOW_VIEW][volume] = shadowOwner;
+        for(int view = 0; view < VIEW_COUNT; view++){
+            volumeVisibleUpdates[view][volume] = updateCount;
+            volumeVisibleIndices[view][volume] = visibleCounts[view];
+            visibleVolumes[view][visibleCounts[view]++] = volume;
         }
-        current.volumes.add(volume);
-        volumes.add(volume);
-
         return volume;
     }
 
-    public void RemoveVolumeExact(CullVolume volume){
-        cullVolumesChanged = true;
+    public void RemoveVolumeExact(int volume){
+        if(volume < 0 || volume >= volumeCapacity || volumeNodes[volume] < 0) throw new Error("culling volume " + String.valueOf(volume) + " is not in the tree");
+        volumesMoved = true;
 
-        //remove the volume from the quad tree
-        int bdX = volume.x; int bdZ = volume.z; int bdW = volume.w;
-        QuadTreeNode current = root;
-        while(current.x != bdX || current.z != bdZ || current.w != bdW){
-            if(bdX + bdW < current.x + current.w / 2 && bdZ + bdW < current.z + current.w / 2){
-                current = current.children[0];
-            }
-            else if(bdX + bdW < current.x + current.w / 2){
-                current = current.children[2];
+        //take the volume out of the visible lists, so it is not reported as hidden
+        for(int view = 0; view < VIEW_COUNT; view++){
+            if(volumeVisibleUpdates[view][volume] == updateCount){
+                int last = visibleVolumes[view][--visibleCounts[view]];
+                visibleVolumes[view][volumeVisibleIndices[view][volume]] = last;
+                volumeVisibleIndices[view][last] = volumeVisibleIndices[view][volume];
             }
-            else if(bdZ + bdW < current.z + current.w / 2){
-                current = current.children[1];
-            }
-            else current = current.children[3];
+            volumeOwners[view][volume] = null;
+            volumeVisibleUpdates[view][volume] = Integer.MIN_VALUE;
         }
-        current.volumes.remove(volume);
-        volumes.remove(volume);
+        volumeNodes[volume] = -1;
+        freeVolumes[freeVolumeCount++] = volume;
     }
 
-    private Vector3i calculateVolumeBox(int x, int z, int w){
+    /**
+     * @return whether the volume was outside of the view (CAMERA_VIEW or SHADOW_VIEW) at the last update.
+     */
+    public boolean IsVolumeCulled(int volume, int view){
+        return volumeVisibleUpdates[view][volume] != updateCount;
+    }
+
+    /**
+     * @return the node of the volume's bounding box, the aligned power of two square of at least its width.
+     */
+    private static int VolumeNode(int x, int z, int w){
         int bdW = Integer.highestOneBit(Math.max(1, w - 1)) * 2;
-        return new Vector3i((x / bdW) * bdW, (z / bdW) * bdW, bdW);
+        bdW = Math.max(MIN_NODE_WIDTH, Math.min(WORLD_SIZE, bdW));
+        int level = Integer.numberOfTrailingZeros(WORLD_SIZE / bdW);
+        int first = ((1 << (2 * level)) - 1) / 3;
+        return first + (SpreadBits(x / bdW) | SpreadBits(z / bdW) << 1);
     }
 
-    public class CullVolume {
-        public boolean isCulled;
-        private boolean prevIsCulled;
-        public int x, z, w;
-        public CullVolume(int x, int z, int w){
-            this.x = x; this.z = z; this.w = w;
+    /**
+     * Counting sort of the volume handles by node, rebuilding every node's range.
+     */
+    private void SortVolumes(){
+        volumesMoved = false;
+        Arrays.fill(nodeVolumeStarts, 0);
+        int volumeCount = 0;
+        for(int volume = 0; volume < volumeCapacity; volume++){
+            if(volumeNodes[volume] < 0) continue;
+            nodeVolumeStarts[volumeNodes[volume] + 1]++;
+            volumeCount++;
+        }
+        for(int node = 0; node < NODE_COUNT; node++) nodeVolumeStarts[node + 1] += nodeVolumeStarts[node];
+
+        if(sortedVolumes.length < volumeCount) sortedVolumes = new int[volumeNodes.length];
+        System.arraycopy(nodeVolumeStarts, 0, sortPositions, 0, NODE_COUNT);
+        for(int volume = 0; volume < volumeCapacity; volume++){
+            if(volumeNodes[volume] < 0) continue;
+            sortedVolumes[sortPositions[volumeNodes[volume]]++] = volume;
         }
     }
 
-    private class QuadTreeNode {
-        public ArrayList<CullVolume> volumes;
-        public QuadTreeNode[] children;
-        public int x, z, w;
-        private Vector4f[] boxVerts;
-
-        public QuadTreeNode(int x, int z, int w){
-            this.x = x; this.z = z; this.w = w;
-            volumes = new ArrayList<>();
-            if(w > 2) {
-                children = new QuadTreeNode[4];
-                children[0] = new QuadTreeNode(x, z, w / 2);
-                children[1] = new QuadTreeNode(x + w / 2, z, w / 2);
-                children[2] = new QuadTreeNode(x, z + w / 2, w / 2);
-                children[3] = new QuadTreeNode(x + w / 2, z + w / 2, w / 2);                
-            }
-            boxVerts = new Vector4f[]{
-                new Vector4f(-PADDING_X_NEG + (float)x, WORLD_Y_MIN, -PADDING_Z_NEG + (float)z, 1.0f),
-                new Vector4f(PADDING_X_POS + (float)(x + w), WORLD_Y_MIN, PADDING_Z_POS + (float)(z + w), 1.0f),
-                new Vector4f(-PADDING_X_NEG + (float)x, WORLD_Y_MIN, PADDING_Z_POS + (float)(z + w), 1.0f),
-                new Vector4f(PADDING_X_POS + (float)(x + w), WORLD_Y_MIN, -PADDING_Z_NEG + (float)z, 1.0f),
-                new Vector4f(-PADDING_X_NEG + (float)x, WORLD_Y_MAX, -PADDING_Z_NEG + (float)z, 1.0f),
-                new Vector4f(PADDING_X_POS + (float)(x + w), WORLD_Y_MAX, PADDING_Z_POS + (float)(z + w), 1.0f),
-                new Vector4f(-PADDING_X_NEG + (float)x, WORLD_Y_MAX, PADDING_Z_POS + (float)(z + w), 1.0f),
-                new Vector4f(PADDING_X_POS + (float)(x + w), WORLD_Y_MAX, -PADDING_Z_NEG + (float)z, 1.0f),
-            };
-        }
+    /**
+     * Tests the node's box against the planes in the mask.
+     * @return
+     *      - -1 if the box is outside of a plane, otherwise the mask without the planes the box is entirely inside of.
+     */
+    private int TestNode(int view, int node, int planeMask){
+        float minX = nodeBounds[node * 4 + 0], minZ = nodeBounds[node * 4 + 1];
+        float maxX = nodeBounds[node * 4 + 2], maxZ = nodeBounds[node * 4 + 3];
+        for(int i = 0; i < 6; i++){
+            if((planeMask & (1 << i)) == 0) continue;
+            int offset = view * 24 + i * 4;
+            float a = planes[offset + 0], b = planes[offset + 1], c = planes[offset + 2], d = planes[offset + 3];
 
-        public boolean isCulled(){
-            //transform each corner of the bounding box's vertices, and check screen coordinates
-            boolean[] sidesCovered = new boolean[6];
-            Vector4f scVert = new Vector4f();
-            for(int i = 0; i < 8; i++){
-                boxVerts[i].mul(Camera.instance.viewProjMatrix, scVert);
-                if(scVert.x > -1.0f) sidesCovered[0] = true;
-                if(scVert.x < 1.0f) sidesCovered[1] = true;
-                if(scVert.y > -1.0f) sidesCovered[2] = true;
-                if(scVert.y < 1.0f) sidesCovered[3] = true;
-            }
-            for(int i = 0; i < 4; i++) if(!sidesCovered[i]) return true;
-            return false;
+            //p-vertex, the corner furthest along the plane's normal, then n-vertex, the corner opposite of it
+            float p = a * (a >= 0.0f ? maxX : minX) + b * (b >= 0.0f ? WORLD_Y_MAX : WORLD_Y_MIN) + c * (c >= 0.0f ? maxZ : minZ) + d;
+            if(p <= 0.0f) return -1;
+            float n = a * (a >= 0.0f ? minX : maxX) + b * (b >= 0.0f ? WORLD_Y_MIN : WORLD_Y_MAX) + c * (c >= 0.0f ? minZ : maxZ) + d;
+            if(n > 0.0f) planeMask &= ~(1 << i);
         }
+        return planeMask;
+    }
+
+    /**
+     * @return the value with a zero bit inserted above each of its low 16 bits.
+     */
+    private static int SpreadBits(int value){
+        value &= 0xFFFF;
+        value = (value | (value << 8)) & 0x00FF00FF;
+        value = (value | (value << 4)) & 0x0F0F0F0F;
+        value = (value | (value << 2)) & 0x33333333;
+        value = (value | (value << 1)) & 0x55555555;
+        return value;
+    }
+
+    /**
+     * @return the even bits of the value, packed together. The inverse of SpreadBits().
+     */
+    private static int CompactBits(int value){
+        value &= 0x55555555;
+        value = (value | (value >>> 1)) & 0x33333333;
+        value = (value | (value >>> 2)) & 0x0F0F0F0F;
+        value = (value | (value >>> 4)) & 0x00FF00FF;
+        value = (value | (value >>> 8)) & 0x0000FFFF;
+        return value;
     }
 
     public void Update() {
+        if(!Input.GetKeyDown(Input.KEY_SPACE)) UpdateCullTree();
     }
-    
+
     public void FixedUpdate() {
-        if((cullVolumesChanged || Camera.instance.position.distance(lastUpdateCameraPos) > CAMERA_MOVE_UPDATE_THRESHOLD ||
-        Math.abs(Camera.instance.distance - lastUpdateCameraDistance) > CAMERA_DISTANCE_UPDATE_THRESHOLD) && !Input.GetKeyDown(Input.KEY_SPACE)){
-            UpdateCullTree();
-            cullVolumesChanged = false;
-            lastUpdateCameraPos = new Vector3f(Camera.instance.position);
-            lastUpdateCameraDistance = Camera.instance.distance;
-        }
     }
 
     public void Draw() {
@@ -193,30 +376,66 @@ public class CullingQuadTree implements GameObject, WindowResizeListener {
     // Static wrappers
 
     /**
-     * Creates and adds a new CullVolume that contains the dimensions to the active cull tree.
+     * Creates and adds a new cull volume that contains the dimensions to the active cull tree.
      * @param x
      * @param z
      * @param width
      * @param depth
+     * @param owner
+     *      - the list the volume's visibility changes in the camera's view are added to.
+     * @param shadowOwner
+     *      - the list the volume's visibility changes in the sun's view, as a shadow caster, are added to.
+     * @param id
+     *      - the owner's id for the volume, reported in the changes. At least 0.
      * @return
-     *      - a CullVolume buffer for the volume's cull state.
+     *      - the volume's handle, for IsCulled() and RemoveVolume().
      */
-    public static CullVolume AddVolume(int x, int z, int width, int depth){
-        return instance.AddVolume(x, z, Math.max(width, depth));
+    public static int AddVolume(int x, int z, int width, int depth, VisibilityChanges owner, VisibilityChanges shadowOwner, int id){
+        return instance.AddVolume(x, z, Math.max(width, depth), owner, shadowOwner, id);
     }
 
     /**
-     * Removes the CullVolume object. Call before destroying the associated object.
-     * @param x
-     * @param z
-     * @param width
-     * @param depth
+     * Removes the cull volume. Call before destroying the associated object.
+     * @param volume
+     *      - the volume's handle.
      */
-    public static void RemoveVolume(CullVolume volume){
+    public static void RemoveVolume(int volume){
         instance.RemoveVolumeExact(volume);
     }
 
-    public void OnWindowResize() {
-        cullVolumesChanged = true;
+    /**
+     * @return whether the volume was outside of the camera's view at the last update.
+     */
+    public static boolean IsCulled(int volume){
+        return instance.IsVolumeCulled(volume, CAMERA_VIEW);
+    }
+
+    /**
+     * @return whether the volume could not cast a shadow into the shadow map at the last update.
+     */
+    public static boolean IsShadowCulled(int volume){
+        return instance.IsVolumeCulled(volume, SHADOW_VIEW);
+    }
+
+    /**
+     * Visibility changes of a group of volumes since the owner last cleared them, in the order they happened. A shown volume
+     * is reported as its id, and a hidden one as its id's complement (~id), which is negative.
+     */
+    public static class VisibilityChanges {
+        public int[] changes;
+        public int count;
+
+        public VisibilityChanges(){
+            changes = new int[64];
+        }
+
+        public void Clear(){
+            count = 0;
+        }
+
+        private void Add(int change){
+            if(count == changes.length) changes = Arrays.copyOf(changes, count * 2);
+            changes[count++] = change;
+        }
     }
-}
\ No newline at end of file
+}
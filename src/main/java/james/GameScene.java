@@ -37,14 +37,15 @@ public class GameScene extends Scene {
 
         new CullingQuadTree();
  
-        //initialize voxel mesh loader and load meshes
+        //initialize voxel mesh loader, meshes are loaded on their first instance
         new VoxelLoader();
+        VoxelLoader.BuildPalette();
 
         //initialize the main scene renderer
         new SceneRenderer();
 
-        //initialize voxel renderer
-        SceneRenderer.LoadAllMeshes();
+        //reload changed models, shaders and atlases while the scene runs
+        if(HotReloader.HOT_RELOAD_ENABLED && !AssetPack.IsPacked()) new HotReloader();
 
         Random random = new Random();
         for(int i = 0; i < 256; i++){
@@ -71,6 +72,7 @@ public class GameScene extends Scene {
     }
 
     public void OnSceneUnload(){
+        if(HotReloader.instance != null) HotReloader.instance.Free();
 
     }
 
@@ -0,0 +1,221 @@
+package james;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Watches the loose resource files and reloads voxel models, shaders and texture atlases when they change, so content can be
+ * iterated on without restarting. Change events are debounced, as editors and the packager write a file in several steps.
+ * The touched asset is decoded on a background thread, and its GPU resources are swapped on the render thread in Update().
+ *
+ * Model sources (.ply and .vox) are packaged again when they change, and the model is then reloaded from the written .voxel
+ * file. Nothing is watched when assets are read from an asset pack.
+ */
+public class HotReloader implements GameObject {
+    public static final boolean HOT_RELOAD_ENABLED = true;
+
+    /**
+     * Time a file must go without change events before it is reloaded, in nanoseconds.
+     */
+    private static final long DEBOUNCE_NANOS = 250000000L;
+
+    /**
+     * Watched directories, relative to \\resources.
+     */
+    private static final String[] WATCHED_DIRECTORIES = { "", "models", "shaders" };
+
+    public static HotReloader instance;
+
+    //the live shaders and atlases, held weakly so the resources of unloaded scenes can be collected
+    private static Set<Shader> shaders = Collections.newSetFromMap(new WeakHashMap<>());
+    private static Set<TextureAtlas> atlases = Collections.newSetFromMap(new WeakHashMap<>());
+
+    private WatchService watchService;
+    private HashMap<WatchKey, String> directories;
+    private ExecutorService decoder;
+
+    /**
+     * Time of the last change event of each changed file, indexed by path relative to \\resources.
+     */
+    private ConcurrentHashMap<String, Long> pendingChanges;
+
+    /**
+     * Decoded assets waiting to be swapped in on the render thread.
+     */
+    private ConcurrentLinkedQueue<Runnable> swaps;
+
+    public HotReloader(){
+        instance = this;
+        Game.AddObject(this);
+
+        directories = new HashMap<>();
+        pendingChanges = new ConcurrentHashMap<>();
+        swaps = new ConcurrentLinkedQueue<>();
+
+        String resourcePath = new File("").getAbsolutePath() + Main.RESOURCE_PATH;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for(String directory : WATCHED_DIRECTORIES){
+                WatchKey key = Paths.get(resourcePath + directory).register(watchService, ENTRY_CREATE, ENTRY_MODIFY);
+                directories.put(key, directory);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("could not watch the resource directories, hot reload is disabled");
+            return;
+        }
+
+        Thread watcher = new Thread(this::Watch, "hot reload watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        decoder = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "hot reload decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void AddShader(Shader shader){
+        shaders.add(shader);
+    }
+
+    public static void AddAtlas(TextureAtlas atlas){
+        atlases.add(atlas);
+    }
+
+    /**
+     * Stops watching. Should be called when the scene that created the reloader is unloaded.
+     */
+    public void Free(){
+        try {
+            if(watchService != null) watchService.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if(decoder != null) decoder.shutdownNow();
+        instance = null;
+    }
+
+    /**
+     * Runs on the watcher thread, recording the time of every change event.
+     */
+    private void Watch(){
+        while(true){
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            String directory = directories.get(key);
+            for(WatchEvent<?> event : key.pollEvents()){
+                if(event.kind() == OVERFLOW) continue;
+                String name = ((Path)event.context()).toString();
+                pendingChanges.put(directory.isEmpty() ? name : directory + "\\" + name, System.nanoTime());
+            }
+            key.reset();
+        }
+    }
+
+    public void Update() {
+        //reload the files that have not changed for the debounce time
+        long time = System.nanoTime();
+        for(Map.Entry<String, Long> change : pendingChanges.entrySet()){
+            if(time - change.getValue() < DEBOUNCE_NANOS) continue;
+            if(pendingChanges.remove(change.getKey(), change.getValue())) Reload(change.getKey());
+        }
+
+        //swap in the assets that finished decoding
+        Runnable swap;
+        while((swap = swaps.poll()) != null) swap.run();
+    }
+
+    public void FixedUpdate() {
+    }
+
+    public void Draw() {
+    }
+
+    private void Reload(String path){
+        if(path.startsWith("shaders\\")){
+            //programs can only be compiled on the render thread, and the sources are too small to be worth reading elsewhere
+            String fileName = path.substring("shaders\\".length());
+            for(Shader shader : new ArrayList<>(shaders)){
+                if(shader.UsesFile(fileName) && shader.Reload()) System.out.println("reloaded shader " + fileName);
+            }
+        }
+        else if(path.startsWith("models\\") && path.endsWith(".voxel")){
+            Decode(path, () -> {
+                VoxelData mesh = VoxelPackager.LoadVoxelMesh(path);
+                return () -> {
+                    VoxelLoader.ReloadMesh(path, mesh);
+                    System.out.println("reloaded voxel mesh " + path);
+                };
+            });
+        }
+        else if(path.startsWith("models\\") && (path.endsWith(".ply") || path.endsWith(".vox"))){
+            //the packager writes the .voxel file, whose own change event reloads the mesh
+            String voxPath = path.substring(0, path.length() - 4) + ".vox";
+            if(path.endsWith(".ply") && new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + voxPath).exists()) return;
+            Decode(path, () -> {
+                if(path.endsWith(".vox")) VoxelPackager.PackageVox(path);
+                else VoxelPackager.PackagePly(path);
+                return null;
+            });
+        }
+        else {
+            for(TextureAtlas atlas : new ArrayList<>(atlases)){
+                if(!atlas.GetPath().equals(path)) continue;
+                Decode(path, () -> {
+                    TextureAtlas.AtlasImage image = TextureAtlas.Decode(path);
+                    return () -> {
+                        atlas.Upload(image);
+                        System.out.println("reloaded texture atlas " + path);
+                    };
+                });
+            }
+        }
+    }
+
+    /**
+     * Work done on the decoder thread, returning the swap to run on the render thread, or null if there is none.
+     */
+    private interface DecodeTask {
+        Runnable Run();
+    }
+
+    private void Decode(String path, DecodeTask task){
+        if(decoder == null) return;
+        decoder.submit(() -> {
+            try {
+                Runnable swap = task.Run();
+                if(swap != null) swaps.add(swap);
+            } catch (Error | RuntimeException e) {
+                e.printStackTrace();
+                //say why, a failed reload otherwise looks like an edit that had no effect
+                String reason = e.getCause() != null ? e.getMessage() + ": " + e.getCause() : e.toString();
+                System.out.println("could not reload " + path + " (" + reason + "), keeping the loaded version");
+            }
+        });
+    }
+}
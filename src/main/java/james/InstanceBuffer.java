@@ -0,0 +1,220 @@
+package james;
+
+import static org.lwjgl.opengl.GL44C.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * GPU side of a renderer's per-instance int attribute, patched from a CPU copy of the instance data at most once a frame.
+ * Only the positions marked dirty since a region of the buffer was last written are copied to it, in runs.
+ *
+ * With PERSISTENT_MAPPING, the buffer is immutable storage (glBufferStorage) that stays mapped, persistently and coherently,
+ * and is split in one region per frame in flight. Each frame writes the region the GPU finished with longest ago, after
+ * waiting on the fence placed when that region was last drawn from, and draws pass the region's first instance as their
+ * base instance. Nothing is ever reallocated or orphaned while the buffer is large enough, so patching never stalls the
+ * driver. Without it, the changed runs are uploaded with glBufferSubData into a single region.
+ *
+ * SceneRenderer calls NextFrame() at the start of every frame.
+ */
+public class InstanceBuffer {
+
+    /**
+     * Off until the persistent path has been run on a real or software GL, instances are patched with glBufferSubData.
+     */
+    public static final boolean PERSISTENT_MAPPING = false;
+
+    /**
+     * Number of frames the GPU may be behind the CPU, each with its own region of a persistent buffer.
+     */
+    private static final int FRAMES_IN_FLIGHT = 3;
+
+    /**
+     * Fraction of the instances above which a region is written as one range rather than in runs of changed positions.
+     */
+    private static final float FULL_WRITE_FRACTION = 0.125f;
+    private static final long FENCE_TIMEOUT_NANOS = 1000000000L;
+
+    private static int frameNumber;
+    private static int frameRegion;
+    private static long[] frameFences = new long[FRAMES_IN_FLIGHT];
+
+    private int VAO;
+    private int attribute;
+    private int buffer;
+    private int regionCount;
+
+    /**
+     * Number of instances each region holds.
+     */
+    private int capacity;
+    private IntBuffer mapped;
+
+    /**
+     * Positions changed since each region was last written. A region marked full is written whole.
+     */
+    private int[][] pendingPositions;
+    private int[] pendingCounts;
+    private boolean[] pendingFull;
+
+    private int uploadedFrame;
+    private int uploadedRegion;
+
+    /**
+     * Number of instances in the region drawn from this frame.
+     */
+    public int count;
+
+    /**
+     * Creates the buffer and points the attribute of the vertex array at it.
+     * @param VAO
+     *      - the vertex array object.
+     * @param attribute
+     *      - the attribute's location, a single int per instance.
+     */
+    public InstanceBuffer(int VAO, int attribute){
+        this.VAO = VAO;
+        this.attribute = attribute;
+        regionCount = PERSISTENT_MAPPING ? FRAMES_IN_FLIGHT : 1;
+        pendingPositions = new int[regionCount][16];
+        pendingCounts = new int[regionCount];
+        pendingFull = new boolean[regionCount];
+        uploadedFrame = -1;
+        Allocate(16);
+    }
+
+    /**
+     * Ends the frame's use of the current regions, and waits until the GPU is done with the regions the next frame writes.
+     */
+    public static void NextFrame(){
+        if(!PERSISTENT_MAPPING) {
+            frameNumber++;
+            return;
+        }
+        if(frameFences[frameRegion] != 0) glDeleteSync(frameFences[frameRegion]);
+        frameFences[frameRegion] = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+
+        frameNumber++;
+        frameRegion = frameNumber % FRAMES_IN_FLIGHT;
+        long fence = frameFences[frameRegion];
+        if(fence == 0) return;
+        int result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+        while(result == GL_TIMEOUT_EXPIRED) result = glClientWaitSync(fence, GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NANOS);
+        if(result == GL_WAIT_FAILED) throw new Error("could not wait for the instance buffer fence");
+        glDeleteSync(fence);
+        frameFences[frameRegion] = 0;
+    }
+
+    /**
+     * Marks a position of the instance data as changed, to be written to every region.
+     */
+    public void MarkDirty(int position){
+        for(int region = 0; region < regionCount; region++){
+            if(pendingFull[region]) continue;
+            int[] positions = pendingPositions[region];
+            if(pendingCounts[region] == positions.length){
+                //past this many changes, the region is written as one range anyway
+                if(pendingCounts[region] > capacity * FULL_WRITE_FRACTION){
+                    pendingFull[region] = true;
+                    pendingCounts[region] = 0;
+                    continue;
+                }
+                positions = pendingPositions[region] = Arrays.copyOf(positions, positions.length * 2);
+            }
+            positions[pendingCounts[region]++] = position;
+        }
+    }
+
+    /**
+     * Writes the changed positions to the frame's region. Only the first call of a frame writes, later changes are written
+     * the next frame, so every draw of a frame reads the same instances.
+     * @param data
+     *      - the instance data, from position 0.
+     * @param instanceCount
+     *      - the number of instances in data.
+     */
+    public void Upload(IntBuffer data, int instanceCount){
+        if(uploadedFrame == frameNumber) return;
+        uploadedFrame = frameNumber;
+        int region = PERSISTENT_MAPPING ? frameRegion : 0;
+
+        //grow to the CPU copy's capacity, so the buffer is not reallocated for every added instance
+        if(instanceCount > capacity) Allocate(Math.max(instanceCount, data.capacity()));
+
+        if(pendingFull[region] || pendingCounts[region] > instanceCount * FULL_WRITE_FRACTION){
+            Write(region, data, 0, instanceCount);
+        }
+        else if(pendingCounts[region] > 0){
+            //write runs of consecutive changed positions
+            int[] positions = pendingPositions[region];
+            Arrays.sort(positions, 0, pendingCounts[region]);
+            int start = -1, end = -1;
+            for(int i = 0; i <= pendingCounts[region]; i++){
+                int position = i < pendingCounts[region] ? positions[i] : Integer.MAX_VALUE;
+                if(position < instanceCount && position <= end) end = Math.max(end, position + 1);
+                else {
+                    if(start >= 0) Write(region, data, start, end - start);
+                    start = position < instanceCount ? position : -1;
+                    end = position + 1;
+                }
+            }
+        }
+        pendingFull[region] = false;
+        pendingCounts[region] = 0;
+        uploadedRegion = region;
+        count = instanceCount;
+    }
+
+    /**
+     * @return the base instance to draw with, the first instance of the region written this frame.
+     */
+    public int BaseInstance(){
+        return uploadedRegion * capacity;
+    }
+
+    public void Free(){
+        glDeleteBuffers(buffer);
+        mapped = null;
+    }
+
+    private void Write(int region, IntBuffer data, int start, int length){
+        if(length <= 0) return;
+        if(PERSISTENT_MAPPING){
+            mapped.put(region * capacity + start, data, start, length);
+            return;
+        }
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        glBufferSubData(GL_ARRAY_BUFFER, 4L * start, data.slice(start, length));
+    }
+
+    /**
+     * Replaces the buffer with one holding the given number of instances per region. Every region is written whole next.
+     */
+    private void Allocate(int instanceCapacity){
+        //the old buffer is only released by GL once the draws reading it are done
+        if(buffer != 0) glDeleteBuffers(buffer);
+        capacity = instanceCapacity;
+        long size = 4L * capacity * regionCount;
+
+        buffer = glGenBuffers();
+        glBindVertexArray(VAO);
+        glBindBuffer(GL_ARRAY_BUFFER, buffer);
+        if(PERSISTENT_MAPPING){
+            int flags = GL_MAP_WRITE_BIT | GL_MAP_PERSISTENT_BIT | GL_MAP_COHERENT_BIT;
+            glBufferStorage(GL_ARRAY_BUFFER, size, flags);
+            ByteBuffer mapping = glMapBufferRange(GL_ARRAY_BUFFER, 0, size, flags);
+            if(mapping == null) throw new Error("could not map the instance buffer");
+            mapped = mapping.order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        else glBufferData(GL_ARRAY_BUFFER, size, GL_DYNAMIC_DRAW);
+
+        glVertexAttribIPointer(attribute, 1, GL_INT, 0, 0);
+        glVertexAttribDivisor(attribute, 1);
+        glEnableVertexAttribArray(attribute);
+
+        Arrays.fill(pendingFull, true);
+        Arrays.fill(pendingCounts, 0);
+    }
+}
@@ -0,0 +1,163 @@
+package james;
+
+import java.util.Arrays;
+
+/**
+ * Slot map holding the instances of one mesh. Instances are referred to by stable int handles, and their fields are kept in
+ * dense parallel arrays, packed at the front: removing an instance moves the last instance into its place. A handle holds
+ * the index of its slot, which maps to the instance's dense index, and the slot's generation, which is bumped when the slot
+ * is freed so stale handles are detected. Instances are also indexed by their (x, z) position, at most one per position.
+ *
+ * Adding, removing and finding an instance are O(1), and allocate nothing once the arrays have grown to fit.
+ */
+public class InstanceStore {
+
+    private static final int SLOT_BITS = 22;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+
+    /**
+     * Number of instances, the used length of the dense arrays.
+     */
+    public int count;
+
+    /**
+     * Dense per-instance fields, indexed by dense index.
+     */
+    public int[] x, z;
+    public int[] cullVolumes;
+    public int[] handles;
+
+    /**
+     * Position of each instance among the drawn instances of the main pass and of the shadow pass, or -1 if it is not drawn.
+     */
+    public int[] drawPositions;
+    public int[] shadowDrawPositions;
+
+    /**
+     * Dense index of each slot's instance, and each slot's generation.
+     */
+    private int[] slotIndices;
+    private int[] slotGenerations;
+    private int slotCount;
+    private int[] freeSlots;
+    private int freeSlotCount;
+
+    /**
+     * Handle of the instance at each position, indexed by PositionKey().
+     */
+    private IntIntMap positionHandles;
+
+    public InstanceStore(){
+        x = new int[16];
+        z = new int[16];
+        cullVolumes = new int[16];
+        drawPositions = new int[16];
+        shadowDrawPositions = new int[16];
+        handles = new int[16];
+        slotIndices = new int[16];
+        slotGenerations = new int[16];
+        freeSlots = new int[16];
+        positionHandles = new IntIntMap(16);
+    }
+
+    /**
+     * Adds an instance, with its cull volume and draw positions unset (-1).
+     * @return
+     *      - the instance's handle.
+     */
+    public int Add(int x, int z){
+        if(Find(x, z) >= 0) throw new Error("there is already an instance at (" + String.valueOf(x) + ", " + String.valueOf(z) + ")");
+
+        int slot;
+        if(freeSlotCount > 0) slot = freeSlots[--freeSlotCount];
+        else {
+            if(slotCount == SLOT_MASK + 1) throw new Error("too many instances");
+            if(slotCount == slotIndices.length){
+                slotIndices = Arrays.copyOf(slotIndices, slotCount * 2);
+                slotGenerations = Arrays.copyOf(slotGenerations, slotCount * 2);
+                freeSlots = Arrays.copyOf(freeSlots, slotCount * 2);
+            }
+            slot = slotCount++;
+        }
+
+        if(count == handles.length){
+            this.x = Arrays.copyOf(this.x, count * 2);
+            this.z = Arrays.copyOf(this.z, count * 2);
+            cullVolumes = Arrays.copyOf(cullVolumes, count * 2);
+            drawPositions = Arrays.copyOf(drawPositions, count * 2);
+            shadowDrawPositions = Arrays.copyOf(shadowDrawPositions, count * 2);
+            handles = Arrays.copyOf(handles, count * 2);
+        }
+        int index = count++;
+        int handle = slotGenerations[slot] << SLOT_BITS | slot;
+        slotIndices[slot] = index;
+        this.x[index] = x;
+        this.z[index] = z;
+        cullVolumes[index] = -1;
+        drawPositions[index] = -1;
+        shadowDrawPositions[index] = -1;
+        handles[index] = handle;
+        positionHandles.Put(PositionKey(x, z), handle);
+        return handle;
+    }
+
+    /**
+     * Removes the instance, moving the last instance into its dense index.
+     */
+    public void Remove(int handle){
+        int index = IndexOf(handle);
+        int slot = handle & SLOT_MASK;
+        positionHandles.Remove(PositionKey(x[index], z[index]));
+
+        int last = --count;
+        if(index != last){
+            x[index] = x[last];
+            z[index] = z[last];
+            cullVolumes[index] = cullVolumes[last];
+            drawPositions[index] = drawPositions[last];
+            shadowDrawPositions[index] = shadowDrawPositions[last];
+            handles[index] = handles[last];
+            slotIndices[handles[index] & SLOT_MASK] = index;
+        }
+        slotGenerations[slot] = (slotGenerations[slot] + 1) & (-1 >>> SLOT_BITS + 1);
+        freeSlots[freeSlotCount++] = slot;
+    }
+
+    /**
+     * @return the handle of the instance at the position, or -1 if there is none.
+     */
+    public int Find(int x, int z){
+        return positionHandles.Get(PositionKey(x, z), -1);
+    }
+
+    public boolean Contains(int handle){
+        int slot = handle & SLOT_MASK;
+        return handle >= 0 && slot < slotCount && slotGenerations[slot] == handle >>> SLOT_BITS && slotIndices[slot] < count && handles[slotIndices[slot]] == handle;
+    }
+
+    /**
+     * @return the instance's dense index, which changes when other instances are removed.
+     */
+    public int IndexOf(int handle){
+        if(!Contains(handle)) throw new Error("invalid instance handle " + String.valueOf(handle));
+        return slotIndices[handle & SLOT_MASK];
+    }
+
+    /**
+     * @return the instance's slot, which stays the same while the instance exists. Slots are less than 2^22.
+     */
+    public static int SlotOf(int handle){
+        return handle & SLOT_MASK;
+    }
+
+    /**
+     * @return the dense index of the instance in the slot. The slot must be in use.
+     */
+    public int IndexOfSlot(int slot){
+        return slotIndices[slot];
+    }
+
+    private static int PositionKey(int x, int z){
+        return x << 16 | (z & 0xFFFF);
+    }
+}
@@ -0,0 +1,155 @@
+package james;
+
+/**
+ * Hash map from int keys to int values that stores both in flat arrays, so no key or value is ever boxed. Collisions are
+ * resolved by linear probing in a power of two sized table, which is doubled when it is half full.
+ */
+public class IntIntMap {
+
+    /**
+     * Marks an unused slot. The key 0 is stored outside of the table.
+     */
+    private static final int EMPTY_KEY = 0;
+
+    private int[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+
+    private boolean hasZeroKey;
+    private int zeroValue;
+
+    /**
+     * Creates an empty map.
+     * @param expectedSize
+     *      - the number of keys the map should hold before its table is first grown.
+     */
+    public IntIntMap(int expectedSize){
+        int capacity = 8;
+        while(capacity < expectedSize * 2) capacity <<= 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * @return the number of keys in the map.
+     */
+    public int Size(){
+        return size;
+    }
+
+    public boolean ContainsKey(int key){
+        if(key == EMPTY_KEY) return hasZeroKey;
+        return keys[Find(key)] == key;
+    }
+
+    /**
+     * @return the key's value, or defaultValue if the key is not in the map.
+     */
+    public int Get(int key, int defaultValue){
+        if(key == EMPTY_KEY) return hasZeroKey ? zeroValue : defaultValue;
+        int slot = Find(key);
+        return keys[slot] == key ? values[slot] : defaultValue;
+    }
+
+    /**
+     * Sets the key's value, adding the key if it is not in the map.
+     */
+    public void Put(int key, int value){
+        if(key == EMPTY_KEY){
+            if(!hasZeroKey) size++;
+            hasZeroKey = true;
+            zeroValue = value;
+            return;
+        }
+        int slot = Find(key);
+        if(keys[slot] == key){
+            values[slot] = value;
+            return;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        if(++size * 2 > keys.length) Grow();
+    }
+
+    /**
+     * Removes the key, if it is in the map.
+     */
+    public void Remove(int key){
+        if(key == EMPTY_KEY){
+            if(hasZeroKey) size--;
+            hasZeroKey = false;
+            return;
+        }
+        int slot = Find(key);
+        if(keys[slot] != key) return;
+        size--;
+
+        //move later keys of the probe sequence back into the gap, as lookups stop at the first empty slot
+        int next = (slot + 1) & mask;
+        while(keys[next] != EMPTY_KEY){
+            if(((next - Home(keys[next])) & mask) >= ((next - slot) & mask)){
+                keys[slot] = keys[next];
+                values[slot] = values[next];
+                slot = next;
+            }
+            next = (next + 1) & mask;
+        }
+        keys[slot] = EMPTY_KEY;
+    }
+
+    /**
+     * Adds to the key's value, treating a key that is not in the map as having the value 0.
+     * @return the key's new value.
+     */
+    public int Add(int key, int amount){
+        int value = Get(key, 0) + amount;
+        Put(key, value);
+        return value;
+    }
+
+    /**
+     * @return every key in the map, in no particular order.
+     */
+    public int[] Keys(){
+        int[] result = new int[size];
+        int count = 0;
+        if(hasZeroKey) result[count++] = EMPTY_KEY;
+        for(int key : keys){
+            if(key != EMPTY_KEY) result[count++] = key;
+        }
+        return result;
+    }
+
+    /**
+     * @return the slot holding the key, or the empty slot where it would be added.
+     */
+    private int Find(int key){
+        int slot = Home(key);
+        while(keys[slot] != key && keys[slot] != EMPTY_KEY) slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /**
+     * @return the slot at which the key's probe sequence starts.
+     */
+    private int Home(int key){
+        int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private void Grow(){
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        mask = keys.length - 1;
+        for(int i = 0; i < oldKeys.length; i++){
+            if(oldKeys[i] == EMPTY_KEY) continue;
+            int slot = Find(oldKeys[i]);
+            keys[slot] = oldKeys[i];
+            values[slot] = oldValues[i];
+        }
+    }
+}
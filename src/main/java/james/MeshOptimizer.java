@@ -0,0 +1,76 @@
+package james;
+
+import java.util.Arrays;
+
+/**
+ * Offline reordering of packaged voxel meshes for cheaper drawing.
+ *
+ * Every quad owns its four vertices and its two triangles already share two of them, so the post-transform vertex cache
+ * is used as well as it can be by any order of quads: a general (Forsyth/Tipsify) cache optimizer has no shared vertices
+ * to work with. What the order of quads does change is overdraw, so quads are sorted into coarse depth clusters along the
+ * camera's fixed isometric view direction and drawn front to back, letting the depth test reject hidden fragments early.
+ * Vertices are renumbered to follow the new quad order, so vertex fetches stay sequential.
+ */
+public class MeshOptimizer {
+
+    /**
+     * Depth along the view direction (1, -1, 1) covered by one cluster, in voxels. Quads within a cluster keep their
+     * meshing order. Changing it requires bumping VoxelPackager.PACKAGER_REVISION.
+     */
+    private static final int CLUSTER_DEPTH = 8;
+
+    /**
+     * Sorts the quads of each face direction front to back for the isometric view, in place. Face directions keep their
+     * offsets and counts, so the result can still be drawn per face direction.
+     * @param mesh
+     *      - the mesh, with four vertices and six indices per quad as built by VoxelMesher.
+     */
+    public static void OptimizeDrawOrder(VoxelData mesh){
+        int quadCount = mesh.vertexCount / 4;
+        int[] positions = new int[mesh.positions.length];
+        int[] indices = new int[mesh.indices.length];
+        int[] colors = new int[mesh.colors.length];
+        int[] ao = new int[mesh.ao.length];
+
+        int[] order = new int[quadCount];
+        for(int k = 0; k < 6; k++){
+            int first = mesh.faceOffsets[k];
+            int count = mesh.faceCounts[k];
+            SortQuads(mesh, first, count, order);
+
+            for(int i = 0; i < count; i++){
+                int source = order[i];
+                int target = first + i;
+                System.arraycopy(mesh.positions, source * 12, positions, target * 12, 12);
+                System.arraycopy(mesh.colors, source * 4, colors, target * 4, 4);
+                System.arraycopy(mesh.ao, source * 4, ao, target * 4, 4);
+                for(int m = 0; m < 6; m++) indices[target * 6 + m] = mesh.indices[source * 6 + m] - source * 4 + target * 4;
+            }
+        }
+
+        mesh.positions = positions;
+        mesh.indices = indices;
+        mesh.colors = colors;
+        mesh.ao = ao;
+    }
+
+    /**
+     * Writes the quads first, ..., first + count - 1 into order[0, count), sorted by depth cluster. The sort is stable, as
+     * the quad's index is the low half of its sort key.
+     */
+    private static void SortQuads(VoxelData mesh, int first, int count, int[] order){
+        long[] keys = new long[count];
+        for(int i = 0; i < count; i++){
+            int quad = first + i;
+            //four times the depth of the quad's center along the view direction
+            int depth = 0;
+            for(int m = 0; m < 4; m++){
+                int vertex = (quad * 4 + m) * 3;
+                depth += mesh.positions[vertex + 0] - mesh.positions[vertex + 1] + mesh.positions[vertex + 2];
+            }
+            keys[i] = (long)Math.floorDiv(depth, 4 * CLUSTER_DEPTH) << 32 | quad;
+        }
+        Arrays.sort(keys);
+        for(int i = 0; i < count; i++) order[i] = (int)keys[i];
+    }
+}
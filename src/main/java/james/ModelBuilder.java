@@ -0,0 +1,184 @@
+package james;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Incremental batch build of a model directory. Every .ply and .vox source is hashed, and only sources whose hash differs from
+ * the one recorded in the directory's manifest (or whose .voxel outputs are missing) are packaged again, in parallel.
+ *
+ * The manifest is a text file with one line per source: the source's file name, its hash and the names of the .voxel files
+ * it was packaged to, separated by tabs. Each .voxel file has its color histogram next to it, see
+ * VoxelPackager.SaveColorHistogram().
+ */
+public class ModelBuilder {
+
+    private static final int BUILD_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final String MANIFEST_NAME = "voxel.manifest";
+
+    /**
+     * Packages every stale model source in the directory and prints a per-model timing report. When a .vox and a .ply file
+     * share a name, only the .vox file is packaged, as both would be saved to the same .voxel file.
+     * @param directory
+     *      - the directory, relative to \\resources.
+     * @return
+     *      - the number of models that could not be packaged.
+     */
+    public static int BuildModels(String directory){
+        String directoryPath = new File("").getAbsolutePath() + Main.RESOURCE_PATH + directory;
+        File[] files = new File(directoryPath).listFiles((dir, name) -> name.endsWith(".ply") || name.endsWith(".vox"));
+        if(files == null) return 0;
+        Arrays.sort(files);
+
+        HashMap<String, String[]> manifest = LoadManifest(directoryPath + "\\" + MANIFEST_NAME);
+        HashMap<String, String[]> updated = new HashMap<>();
+
+        //find the sources that changed since they were last packaged
+        ArrayList<File> sources = new ArrayList<>();
+        ArrayList<String> hashes = new ArrayList<>();
+        ArrayList<Future<String[]>> builds = new ArrayList<>();
+        ArrayList<long[]> buildTimes = new ArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(BUILD_THREADS, files.length)));
+        for(File file : files){
+            String name = file.getName();
+            if(name.endsWith(".ply") && new File(directoryPath + "\\" + name.replace(".ply", ".vox")).exists()){
+                System.out.println(name + ": skipped, " + name.replace(".ply", ".vox") + " packages to the same .voxel file");
+                continue;
+            }
+
+            String hash = HashFile(file);
+            String[] entry = manifest.get(name);
+            if(entry != null && entry[0].equals(hash) && OutputsExist(directoryPath, entry)){
+                updated.put(name, entry);
+                System.out.println(name + ": up to date");
+                continue;
+            }
+
+            String path = directory + "\\" + name;
+            long[] time = new long[1];
+            sources.add(file);
+            hashes.add(hash);
+            buildTimes.add(time);
+            builds.add(pool.submit(() -> {
+                long startTime = System.nanoTime();
+                String[] outputs = name.endsWith(".vox") ? VoxelPackager.PackageVox(path) : new String[]{ VoxelPackager.PackagePly(path) };
+                time[0] = System.nanoTime() - startTime;
+                return outputs;
+            }));
+        }
+        pool.shutdown();
+
+        //report the packaged models in file order
+        int failures = 0;
+        for(int i = 0; i < sources.size(); i++){
+            String name = sources.get(i).getName();
+            try {
+                String[] outputs = builds.get(i).get();
+                String[] entry = new String[outputs.length + 1];
+                entry[0] = hashes.get(i);
+                for(int j = 0; j < outputs.length; j++) entry[j + 1] = outputs[j].substring(outputs[j].lastIndexOf("\\") + 1);
+                updated.put(name, entry);
+                System.out.println(name + ": packaged in " + String.valueOf(buildTimes.get(i)[0] / 1000000.0) + " ms");
+            } catch (InterruptedException | ExecutionException e) {
+                //left out of the manifest, so the model is packaged again by the next build
+                e.printStackTrace();
+                System.out.println(name + ": could not be packaged");
+                failures++;
+            }
+        }
+        System.out.println(String.valueOf(sources.size() - failures) + " models packaged, " + String.valueOf(updated.size() - sources.size() + failures) + " up to date, " + String.valueOf(failures) + " failed");
+
+        SaveManifest(directoryPath + "\\" + MANIFEST_NAME, updated);
+        return failures;
+    }
+
+    /**
+     * Hashes the file's contents together with the .voxel format version, the compression setting, the number of levels
+     * of detail and the packager revision, so changing any of them repackages every model.
+     * @return the SHA-256 hash as a hex string.
+     */
+    private static String HashFile(File file){
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new Error("SHA-256 is not available", e);
+        }
+
+        try {
+            digest.update(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new Error("could not read model file " + file.getAbsolutePath());
+        }
+        ByteBuffer settings = ByteBuffer.allocate(16);
+        settings.putInt(0, VoxelPackager.VOXEL_FILE_VERSION).putInt(4, VoxelPackager.COMPRESS_VOXEL_FILES ? 1 : 0);
+        settings.putInt(8, VoxelPackager.LOD_COUNT).putInt(12, VoxelPackager.PACKAGER_REVISION);
+        digest.update(settings);
+
+        StringBuilder hash = new StringBuilder();
+        for(byte b : digest.digest()) hash.append(String.format("%02x", b));
+        return hash.toString();
+    }
+
+    private static boolean OutputsExist(String directoryPath, String[] entry){
+        for(int i = 1; i < entry.length; i++){
+            if(!new File(directoryPath + "\\" + entry[i]).exists()) return false;
+            if(!new File(directoryPath + "\\" + VoxelPackager.ColorHistogramPath(entry[i])).exists()) return false;
+        }
+        return entry.length > 1;
+    }
+
+    /**
+     * @return the manifest's entries, indexed by source file name, each holding the hash followed by the output file names.
+     *      Empty if there is no manifest yet.
+     */
+    private static HashMap<String, String[]> LoadManifest(String filePath){
+        HashMap<String, String[]> result = new HashMap<>();
+        if(!new File(filePath).exists()) return result;
+
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            while((line = reader.readLine()) != null){
+                String[] fields = line.split("\t");
+                if(fields.length < 3) continue;
+                String[] entry = new String[fields.length - 1];
+                System.arraycopy(fields, 1, entry, 0, entry.length);
+                result.put(fields[0], entry);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.out.println("could not read manifest " + filePath + ", rebuilding every model");
+            result.clear();
+        }
+        return result;
+    }
+
+    private static void SaveManifest(String filePath, HashMap<String, String[]> manifest){
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath))) {
+            for(String source : manifest.keySet().stream().sorted().toList()){
+                writer.write(source);
+                for(String field : manifest.get(source)) writer.write("\t" + field);
+                writer.write("\n");
+            }
+        } catch (IOException e) {
+            System.out.println("could not save file " + filePath + " to the system");
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package james;
+
+import java.util.Arrays;
+
+/**
+ * Builds a color palette of limited size from the colors of every loaded mesh. The colors are counted, and if there are more
+ * distinct colors than the palette holds, they are reduced by median cut in the Oklab color space, where distances follow
+ * perceived color differences. Every color is then mapped to its nearest palette entry.
+ *
+ * Colors are in the rgba_8888 format throughout, and the clear color 0 is never counted, as it is always palette index 0.
+ */
+public class PaletteBuilder {
+
+    /**
+     * Number of times each distinct color was added, indexed by color.
+     */
+    private IntIntMap colorCounts;
+
+    /**
+     * The built palette's colors. Set by Build().
+     */
+    public int[] palette;
+
+    /**
+     * Index into palette of each added color. Set by Build().
+     */
+    public IntIntMap paletteIndices;
+
+    /**
+     * The largest Oklab distance between an added color and its palette entry. 0 if every color has its own entry.
+     */
+    public float maxError;
+
+    public PaletteBuilder(){
+        colorCounts = new IntIntMap(256);
+    }
+
+    /**
+     * Counts the colors of a mesh.
+     * @param colors
+     *      - the mesh's colors, in the rgba_8888 format.
+     */
+    public void AddColors(int[] colors){
+        for(int color : colors){
+            if(color != 0) colorCounts.Add(color, 1);
+        }
+    }
+
+    /**
+     * Counts a color the given number of times, as read from a color histogram.
+     * @param color
+     *      - the color, in the rgba_8888 format.
+     * @param count
+     */
+    public void AddColor(int color, int count){
+        if(color != 0) colorCounts.Add(color, count);
+    }
+
+    /**
+     * @return the number of distinct colors added.
+     */
+    public int ColorCount(){
+        return colorCounts.Size();
+    }
+
+    /**
+     * Builds the palette from the added colors.
+     * @param maxColors
+     *      - the largest number of palette entries.
+     */
+    public void Build(int maxColors){
+        int[] colors = colorCounts.Keys();
+        Arrays.sort(colors);
+        int colorCount = colors.length;
+        int[] weights = new int[colorCount];
+        float[] lab = new float[colorCount * 4];
+        for(int i = 0; i < colorCount; i++){
+            weights[i] = colorCounts.Get(colors[i], 0);
+            ToOklab(colors[i], lab, i * 4);
+        }
+
+        paletteIndices = new IntIntMap(colorCount);
+        maxError = 0.0f;
+        if(colorCount <= maxColors){
+            palette = colors;
+            for(int i = 0; i < colorCount; i++) paletteIndices.Put(colors[i], i);
+            return;
+        }
+
+        //median cut: boxes are ranges of order, split at the weighted median of their widest axis until there are enough
+        int[] order = new int[colorCount];
+        for(int i = 0; i < colorCount; i++) order[i] = i;
+        int[] boxStarts = new int[maxColors + 1];
+        int boxCount = 1;
+        boxStarts[1] = colorCount;
+        double[] boxErrors = new double[maxColors];
+        boxErrors[0] = BoxError(order, 0, colorCount, lab, weights);
+        while(boxCount < maxColors){
+            int box = 0;
+            for(int b = 1; b < boxCount; b++){
+                if(boxErrors[b] > boxErrors[box]) box = b;
+            }
+            if(boxErrors[box] <= 0.0) break;
+
+            int start = boxStarts[box];
+            int end = boxStarts[box + 1];
+            int split = SplitBox(order, start, end, lab, weights);
+            System.arraycopy(boxStarts, box + 1, boxStarts, box + 2, boxCount - box);
+            System.arraycopy(boxErrors, box + 1, boxErrors, box + 2, boxCount - box - 1);
+            boxStarts[box + 1] = split;
+            boxErrors[box] = BoxError(order, start, split, lab, weights);
+            boxErrors[box + 1] = BoxError(order, split, end, lab, weights);
+            boxCount++;
+        }
+
+        //each box is represented by its color nearest to the box's weighted mean, so palette colors are authored colors
+        palette = new int[boxCount];
+        float[] paletteLab = new float[boxCount * 4];
+        for(int b = 0; b < boxCount; b++){
+            float[] mean = new float[4];
+            BoxMean(order, boxStarts[b], boxStarts[b + 1], lab, weights, mean);
+            int nearest = order[boxStarts[b]];
+            for(int i = boxStarts[b]; i < boxStarts[b + 1]; i++){
+                if(Distance(lab, order[i] * 4, mean, 0) < Distance(lab, nearest * 4, mean, 0)) nearest = order[i];
+            }
+            palette[b] = colors[nearest];
+            System.arraycopy(lab, nearest * 4, paletteLab, b * 4, 4);
+        }
+
+        //map every color to its nearest entry, which is not always the one of its own box
+        for(int i = 0; i < colorCount; i++){
+            int nearest = 0;
+            float nearestDistance = Float.MAX_VALUE;
+            for(int p = 0; p < boxCount; p++){
+                float distance = Distance(lab, i * 4, paletteLab, p * 4);
+                if(distance < nearestDistance){
+                    nearest = p;
+                    nearestDistance = distance;
+                }
+            }
+            paletteIndices.Put(colors[i], nearest);
+            maxError = Math.max(maxError, (float)Math.sqrt(nearestDistance));
+        }
+    }
+
+    /**
+     * Sorts the box's colors along the axis on which they spread the most, and finds the weighted median.
+     * @return
+     *      - the first position of the upper half, in (start, end).
+     */
+    private static int SplitBox(int[] order, int start, int end, float[] lab, int[] weights){
+        float[] mean = new float[4];
+        BoxMean(order, start, end, lab, weights, mean);
+        double[] variance = new double[4];
+        for(int i = start; i < end; i++){
+            for(int k = 0; k < 4; k++){
+                double d = lab[order[i] * 4 + k] - mean[k];
+                variance[k] += weights[order[i]] * d * d;
+            }
+        }
+        int axis = 0;
+        for(int k = 1; k < 4; k++){
+            if(variance[k] > variance[axis]) axis = k;
+        }
+
+        //sort by the axis, with ties kept in color order
+        long[] keys = new long[end - start];
+        long totalWeight = 0;
+        for(int i = start; i < end; i++){
+            int bits = Float.floatToIntBits(lab[order[i] * 4 + axis]);
+            keys[i - start] = (long)(bits ^ ((bits >> 31) & 0x7FFFFFFF)) << 32 | order[i];
+            totalWeight += weights[order[i]];
+        }
+        Arrays.sort(keys);
+        for(int i = start; i < end; i++) order[i] = (int)keys[i - start];
+
+        long weight = 0;
+        for(int i = start; i < end - 1; i++){
+            weight += weights[order[i]];
+            if(weight * 2 >= totalWeight) return i + 1;
+        }
+        return end - 1;
+    }
+
+    /**
+     * @return the weighted sum of squared distances of the box's colors to their mean.
+     */
+    private static double BoxError(int[] order, int start, int end, float[] lab, int[] weights){
+        if(end - start < 2) return 0.0;
+        float[] mean = new float[4];
+        BoxMean(order, start, end, lab, weights, mean);
+        double error = 0.0;
+        for(int i = start; i < end; i++) error += weights[order[i]] * (double)Distance(lab, order[i] * 4, mean, 0);
+        return error;
+    }
+
+    private static void BoxMean(int[] order, int start, int end, float[] lab, int[] weights, float[] mean){
+        double[] sum = new double[4];
+        long totalWeight = 0;
+        for(int i = start; i < end; i++){
+            for(int k = 0; k < 4; k++) sum[k] += (double)weights[order[i]] * lab[order[i] * 4 + k];
+            totalWeight += weights[order[i]];
+        }
+        for(int k = 0; k < 4; k++) mean[k] = (float)(sum[k] / totalWeight);
+    }
+
+    /**
+     * @return the squared distance between two colors in Oklab space, with alpha as a fourth axis.
+     */
+    public static float Distance(float[] a, int aOffset, float[] b, int bOffset){
+        float distance = 0.0f;
+        for(int k = 0; k < 4; k++){
+            float d = a[aOffset + k] - b[bOffset + k];
+            distance += d * d;
+        }
+        return distance;
+    }
+
+    /**
+     * Converts an sRGB color to the Oklab color space, with its alpha as a fourth component.
+     * @param rgba_8888
+     *      - the color.
+     * @param result
+     *      - the array the lightness, a, b and alpha components are written to.
+     * @param offset
+     *      - the position of the first component in result.
+     */
+    public static void ToOklab(int rgba_8888, float[] result, int offset){
+        float r = SrgbToLinear((rgba_8888 >>> 24) & 0xFF);
+        float g = SrgbToLinear((rgba_8888 >>> 16) & 0xFF);
+        float b = SrgbToLinear((rgba_8888 >>> 8) & 0xFF);
+
+        float l = (float)Math.cbrt(0.4122214708f * r + 0.5363325363f * g + 0.0514459929f * b);
+        float m = (float)Math.cbrt(0.2119034982f * r + 0.6806995451f * g + 0.1073969566f * b);
+        float s = (float)Math.cbrt(0.0883024619f * r + 0.2817188376f * g + 0.6299787005f * b);
+
+        result[offset + 0] = 0.2104542553f * l + 0.7936177850f * m - 0.0040720468f * s;
+        result[offset + 1] = 1.9779984951f * l - 2.4285922050f * m + 0.4505937099f * s;
+        result[offset + 2] = 0.0259040371f * l + 0.7827717662f * m - 0.8086757660f * s;
+        result[offset + 3] = (rgba_8888 & 0xFF) / 255.0f;
+    }
+
+    private static float SrgbToLinear(int channel){
+        float c = channel / 255.0f;
+        return c <= 0.04045f ? c / 12.92f : (float)Math.pow((c + 0.055f) / 1.055f, 2.4f);
+    }
+}
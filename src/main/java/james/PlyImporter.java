@@ -0,0 +1,227 @@
+package james;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Reads .ply point clouds, as exported by MagicaVoxel, into a VoxelGrid. The file is memory mapped and its vertex element
+ * is tokenized straight from the bytes into primitive arrays. Supports the ascii, binary_little_endian and binary_big_endian formats.
+ */
+public class PlyImporter {
+    private static final int FORMAT_ASCII = 0, FORMAT_BINARY_LE = 1, FORMAT_BINARY_BE = 2;
+    private static final int TYPE_INT8 = 0, TYPE_UINT8 = 1, TYPE_INT16 = 2, TYPE_UINT16 = 3, TYPE_INT32 = 4, TYPE_UINT32 = 5, TYPE_FLOAT32 = 6, TYPE_FLOAT64 = 7;
+    private static final int[] TYPE_SIZES = { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+    private ByteBuffer buffer;
+    private String source;
+
+    private PlyImporter(ByteBuffer buffer, String source){
+        this.buffer = buffer;
+        this.source = source;
+    }
+
+    /**
+     * Reads the .ply file into a voxel grid. The file's z-axis is treated as up, so it is swapped with the y-axis.
+     * @param path
+     *      - the path of the file relative to \\resources, including the file extension.
+     * @return
+     *      - the populated grid.
+     */
+    public static VoxelGrid ImportPly(String path){
+        String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
+        ByteBuffer buffer;
+        //read rather than mapped, as a live mapping keeps the file from being saved again on Windows
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filePath)));
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new Error("could not read voxel file " + filePath);
+        }
+        return new PlyImporter(buffer, filePath).Read();
+    }
+
+    private VoxelGrid Read(){
+        //header
+        if(!"ply".equals(NextHeaderLine())) throw new Error("invalid voxel file " + source);
+        int format = -1;
+        int vertexCount = -1;
+        boolean inVertexElement = false;
+        ArrayList<String> propertyNames = new ArrayList<>();
+        ArrayList<Integer> propertyTypes = new ArrayList<>();
+        String line;
+        while(!"end_header".equals(line = NextHeaderLine())){
+            if(line == null) throw new Error("invalid voxel file " + source);
+            String[] words = line.trim().split("\\s+");
+            if(words[0].equals("format")){
+                if(words[1].equals("ascii")) format = FORMAT_ASCII;
+                else if(words[1].equals("binary_little_endian")) format = FORMAT_BINARY_LE;
+                else if(words[1].equals("binary_big_endian")) format = FORMAT_BINARY_BE;
+                else throw new Error("unsupported ply format " + words[1] + " in " + source);
+            }
+            else if(words[0].equals("element")){
+                inVertexElement = words[1].equals("vertex");
+                if(inVertexElement) vertexCount = Integer.parseInt(words[2]);
+                else if(vertexCount < 0) throw new Error("vertex element must be the first element in " + source);
+            }
+            else if(words[0].equals("property") && inVertexElement){
+                if(words[1].equals("list")) throw new Error("list properties are not supported for vertices in " + source);
+                propertyTypes.add(PropertyType(words[1]));
+                propertyNames.add(words[2]);
+            }
+        }
+        if(format < 0 || vertexCount < 0) throw new Error("invalid voxel file " + source);
+
+        int propertyCount = propertyNames.size();
+        int[] propertyIndex = {
+            propertyNames.indexOf("x"), propertyNames.indexOf("y"), propertyNames.indexOf("z"),
+            propertyNames.indexOf("red"), propertyNames.indexOf("green"), propertyNames.indexOf("blue")
+        };
+        for(int i = 0; i < 6; i++) if(propertyIndex[i] < 0) throw new Error("missing vertex property in " + source);
+
+        //vertex data, swapping the y and z axes
+        int[] x = new int[vertexCount];
+        int[] y = new int[vertexCount];
+        int[] z = new int[vertexCount];
+        int[] colors = new int[vertexCount];
+        int[] values = new int[propertyCount];
+        if(format == FORMAT_ASCII){
+            for(int i = 0; i < vertexCount; i++){
+                for(int p = 0; p < propertyCount; p++) values[p] = NextAsciiValue();
+                x[i] = values[propertyIndex[0]];
+                y[i] = values[propertyIndex[2]];
+                z[i] = values[propertyIndex[1]];
+                colors[i] = PackColor(values[propertyIndex[3]], values[propertyIndex[4]], values[propertyIndex[5]]);
+            }
+        }
+        else {
+            buffer.order(format == FORMAT_BINARY_LE ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+            int[] offsets = new int[propertyCount];
+            int[] types = new int[propertyCount];
+            int stride = 0;
+            for(int p = 0; p < propertyCount; p++){
+                types[p] = propertyTypes.get(p);
+                offsets[p] = stride;
+                stride += TYPE_SIZES[types[p]];
+            }
+            if(buffer.remaining() < (long)stride * vertexCount) throw new Error("invalid voxel file " + source);
+
+            int base = buffer.position();
+            for(int i = 0; i < vertexCount; i++, base += stride){
+                x[i] = BinaryValue(base + offsets[propertyIndex[0]], types[propertyIndex[0]]);
+                y[i] = BinaryValue(base + offsets[propertyIndex[2]], types[propertyIndex[2]]);
+                z[i] = BinaryValue(base + offsets[propertyIndex[1]], types[propertyIndex[1]]);
+                colors[i] = PackColor(
+                    BinaryValue(base + offsets[propertyIndex[3]], types[propertyIndex[3]]),
+                    BinaryValue(base + offsets[propertyIndex[4]], types[propertyIndex[4]]),
+                    BinaryValue(base + offsets[propertyIndex[5]], types[propertyIndex[5]])
+                );
+            }
+        }
+
+        return VoxelGrid.FromPoints(x, y, z, colors, vertexCount);
+    }
+
+    /**
+     * Packs a color the same way new Color(red, green, blue, 256).rgba_8_8_8_8 does.
+     */
+    private static int PackColor(int red, int green, int blue){
+        return (red & 0xFF) << 24 | (green & 0xFF) << 16 | (blue & 0xFF) << 8 | 0xFF;
+    }
+
+    /**
+     * @return the next header line, or null at the end of the file.
+     */
+    private String NextHeaderLine(){
+        if(!buffer.hasRemaining()) return null;
+        int start = buffer.position();
+        while(buffer.hasRemaining() && buffer.get() != '\n');
+        byte[] bytes = new byte[buffer.position() - start];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.US_ASCII).trim();
+    }
+
+    /**
+     * Tokenizes the next ascii number, rounded to the nearest integer.
+     */
+    private int NextAsciiValue(){
+        byte c = ' ';
+        while(buffer.hasRemaining() && IsWhitespace(c = buffer.get()));
+        boolean negative = c == '-';
+        if(negative || c == '+') c = NextByte();
+        if((c < '0' || c > '9') && c != '.') throw new Error("invalid voxel file " + source);
+
+        long value = 0;
+        while(c >= '0' && c <= '9'){
+            value = value * 10 + (c - '0');
+            c = NextByte();
+        }
+        if(c != '.' && c != 'e' && c != 'E') return (int)(negative ? -value : value);
+
+        //fractional values are rare in voxel exports, but valid for float properties
+        double result = value;
+        if(c == '.'){
+            double scale = 0.1;
+            while((c = NextByte()) >= '0' && c <= '9'){
+                result += (c - '0') * scale;
+                scale *= 0.1;
+            }
+        }
+        if(c == 'e' || c == 'E'){
+            c = NextByte();
+            boolean negativeExponent = c == '-';
+            if(negativeExponent || c == '+') c = NextByte();
+            int exponent = 0;
+            while(c >= '0' && c <= '9'){
+                exponent = exponent * 10 + (c - '0');
+                c = NextByte();
+            }
+            result *= Math.pow(10.0, negativeExponent ? -exponent : exponent);
+        }
+        return (int)Math.round(negative ? -result : result);
+    }
+
+    /**
+     * @return the next byte, or a space at the end of the file.
+     */
+    private byte NextByte(){
+        return buffer.hasRemaining() ? buffer.get() : (byte)' ';
+    }
+
+    private static boolean IsWhitespace(byte c){
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * Reads a binary property at an absolute offset, rounded to the nearest integer.
+     */
+    private int BinaryValue(int offset, int type){
+        switch(type){
+            case TYPE_INT8: return buffer.get(offset);
+            case TYPE_UINT8: return buffer.get(offset) & 0xFF;
+            case TYPE_INT16: return buffer.getShort(offset);
+            case TYPE_UINT16: return buffer.getShort(offset) & 0xFFFF;
+            case TYPE_INT32: case TYPE_UINT32: return buffer.getInt(offset);
+            case TYPE_FLOAT32: return Math.round(buffer.getFloat(offset));
+            default: return (int)Math.round(buffer.getDouble(offset));
+        }
+    }
+
+    private static int PropertyType(String type){
+        switch(type){
+            case "char": case "int8": return TYPE_INT8;
+            case "uchar": case "uint8": return TYPE_UINT8;
+            case "short": case "int16": return TYPE_INT16;
+            case "ushort": case "uint16": return TYPE_UINT16;
+            case "int": case "int32": return TYPE_INT32;
+            case "uint": case "uint32": return TYPE_UINT32;
+            case "float": case "float32": return TYPE_FLOAT32;
+            case "double": case "float64": return TYPE_FLOAT64;
+        }
+        throw new Error("unsupported ply property type " + type);
+    }
+}
@@ -11,8 +11,19 @@ public class RenderMeshData {
 
     public int vertexCount, culledIndexCount, completeIndexCount;
     public int width, depth;
-    public float[] vertices;
+
+    /**
+     * Two ints per vertex: z (16 bits) | x (16 bits), and color (8 bits) | faceDirection (3 bits) | ao (2 bits) | 3 unused bits | y (16 bits),
+     * from the highest bits down. Positions are in 1/16ths of a world unit.
+     */
+    public int[] vertices;
+
+    /**
+     * The mesh's triangles. Meshes with at most 65536 vertices store them in shortIndices instead, as unsigned 16-bit values,
+     * and leave indices null.
+     */
     public int[] indices;
+    public short[] shortIndices;
     
     /**
      * Takes a VoxelData object and packages it into the loaded world mesh format.
@@ -51,7 +62,7 @@ public class RenderMeshData {
             if(!FACE_CULL[curIndex]) culledIndexCount += 6 * faceCounts[curIndex];
         }
 
-        vertices = new float[4 * vertexCount];
+        vertices = new int[2 * vertexCount];
         indices = new int[completeIndexCount];
         
         //copy indices
@@ -71,18 +82,26 @@ public class RenderMeshData {
             curIndex = faceOrderIndex[k];
 
             for(int i = mesh.faceOffsets[curIndex] * 4; i < (mesh.faceOffsets[curIndex] + mesh.faceCounts[curIndex]) * 4; i++){
-                vertices[vertIndex + 0] = (float)mesh.vertices[i][0] / 16.0f;
-                vertices[vertIndex + 1] = (float)mesh.vertices[i][1] / 16.0f;
-                vertices[vertIndex + 2] = (float)mesh.vertices[i][2] / 16.0f;
-                vertices[vertIndex + 3] = Float.intBitsToFloat(
-                    (mesh.colors[i] & 0xFF) << 24 | (curIndex & 0xFF) << 21 | (mesh.ambientOcclusion[i] & 0x3) << 19
-                );
+                int x = mesh.positions[i * 3 + 0];
+                int y = mesh.positions[i * 3 + 1];
+                int z = mesh.positions[i * 3 + 2];
+                if(((x | y | z) & ~0xFFFF) != 0) throw new Error("vertex (" + String.valueOf(x) + ", " + String.valueOf(y) + ", " + String.valueOf(z) + ") of mesh " + mesh.name + " does not fit the packed vertex format");
+
+                vertices[vertIndex + 0] = x | z << 16;
+                vertices[vertIndex + 1] = (mesh.colors[i] & 0xFF) << 24 | (curIndex & 0x7) << 21 | (mesh.ao[i] & 0x3) << 19 | y;
 
-                if((int)vertices[vertIndex + 0] > width) width = (int)vertices[vertIndex + 0];
-                if((int)vertices[vertIndex + 2] > depth) depth = (int)vertices[vertIndex + 2];
+                if(x / 16 > width) width = x / 16;
+                if(z / 16 > depth) depth = z / 16;
                 
-                vertIndex += 4;
+                vertIndex += 2;
             }
         }
+
+        //narrow the indices when every vertex can be addressed with 16 bits
+        if(vertexCount <= 0x10000){
+            shortIndices = new short[completeIndexCount];
+            for(int i = 0; i < completeIndexCount; i++) shortIndices[i] = (short)indices[i];
+            indices = null;
+        }
     }
 }
\ No newline at end of file
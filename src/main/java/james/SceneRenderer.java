@@ -4,6 +4,8 @@ import static org.lwjgl.opengl.GL44C.*;
 
 import java.nio.FloatBuffer;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.joml.Vector2i;
@@ -14,8 +16,17 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
 
     private static final String[] FOLIAGE_NAMES = { "tree_cedar" };
 
-    public HashMap<String, VoxelInstanceRenderer> instanceRenderers;
+    /**
+     * GPU memory, in bytes, that mesh buffers may use before meshes without instances are evicted, least recently used first.
+     */
+    public static long meshMemoryBudget = 64L * 1024 * 1024;
+
+    /**
+     * The resident meshes' renderers, ordered from least to most recently used.
+     */
+    public LinkedHashMap<String, VoxelInstanceRenderer> instanceRenderers;
     public HashMap<String, RendererVariant> variantFlags;
+    private long meshMemoryUsed;
 
     private int frameBuffer;
     private int renderBuffer;
@@ -70,6 +81,9 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
         Game.AddObject(this);
         Game.AddWindowResizeListener(this);
 
+        instanceRenderers = new LinkedHashMap<>(16, 0.75f, true);
+        variantFlags = new HashMap<>();
+
         screenQuad = new ScreenQuad(new Shader("fx.vert", "fx.frag"));
         worldShader = new Shader("world.vert", "world.frag");
         worldShadowmapShader = new Shader("shadowmap.vert", "shadowmap.frag");
@@ -238,6 +252,8 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
     }
 
     public void Draw() {
+        InstanceBuffer.NextFrame();
+
         if(Game.wireframe){
             glBindFramebuffer(GL_FRAMEBUFFER, frameBuffer);
             glClear(GL_COLOR_BUFFER_BIT | GL_DEPTH_BUFFER_BIT);
@@ -265,6 +281,8 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
         glCullFace(GL_FRONT);
         glBindFramebuffer(GL_FRAMEBUFFER, shadowmapFrameBuffer);
         glClear(GL_DEPTH_BUFFER_BIT);
+        //casters are culled without the sun's near plane, those in front of it are clamped to it rather than clipped
+        glEnable(GL_DEPTH_CLAMP);
         worldShadowmapShader.Use();
         for(Map.Entry<String, VoxelInstanceRenderer> instanceRenderer : instanceRenderers.entrySet()){
             if(variantFlags.get(instanceRenderer.getKey()).equals(RendererVariant.Standard)){
@@ -277,6 +295,7 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
                 instanceRenderer.getValue().DrawShadowPass();
             }
         }
+        glDisable(GL_DEPTH_CLAMP);
 
         if(Main.MSAA_ENABLED) glEnable(GL_MULTISAMPLE);
         
@@ -396,48 +415,95 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
     }
 
     /**
-     * Gets all voxel mesh objects that are loaded and creates buffers for each of them.
-     * Should be called once at scene open in a standard implementation.
-     * TODO: either remove or add an instance/non-instanced flag, so that non-instanced meshes do not 
-     * have instance buffers created needlessly.
+     * Loads every voxel mesh and creates buffers for each of them, rather than waiting for their first instance.
+     * Meshes without instances are still evicted once over meshMemoryBudget.
      */
     public static void LoadAllMeshes(){
-        instance.instanceRenderers = new HashMap<>();
-        for(VoxelData mesh : VoxelLoader.meshObjects.values()){
-            instance.instanceRenderers.put(mesh.name, new VoxelInstanceRenderer(mesh.name));
-        }
-
-        //set the variant flags
-        instance.variantFlags = new HashMap<>();
-        for(VoxelData mesh : VoxelLoader.meshObjects.values()){
-            RendererVariant variant = RendererVariant.Standard;
-            for(String cmp : FOLIAGE_NAMES){
-                if(mesh.name.equals(cmp)){
-                    variant = RendererVariant.Foliage;
-                    break;
-                }
-            }
-            instance.variantFlags.put(mesh.name, variant);
-        }
+        String[] names = VoxelLoader.MeshNames();
+        VoxelLoader.LoadMeshes(names);
+        for(String name : names) GetInstanceRenderer(name);
     }
 
     /**
-     * Manually add a mesh to be instance rendered
+     * Manually add a mesh to be instance rendered. Such meshes are never evicted, as they cannot be loaded again. If the
+     * mesh is already resident, its renderer is reloaded with the mesh, keeping its instances.
      * @param mesh
      *      - the loaded voxel mesh.
      */
     public static void LoadInstancedMesh(VoxelData mesh){
-        instance.instanceRenderers.put(mesh.name, new VoxelInstanceRenderer(mesh));
+        if(instance.instanceRenderers.containsKey(mesh.name)) ReloadMesh(mesh.name, mesh);
+        else AddInstanceRenderer(mesh.name, mesh);
+    }
+
+    /**
+     * Gets the mesh's renderer, loading the mesh and uploading its buffers if it is not resident.
+     * @param name
+     *      - the mesh's name.
+     * @return
+     *      - the mesh's renderer.
+     */
+    public static VoxelInstanceRenderer GetInstanceRenderer(String name){
+        VoxelInstanceRenderer renderer = instance.instanceRenderers.get(name);
+        if(renderer != null) return renderer;
+
+        renderer = AddInstanceRenderer(name, VoxelLoader.GetMesh(name));
+        //the buffers hold everything that is drawn, so the heap copy is not kept
+        VoxelLoader.UnloadMesh(name);
+        return renderer;
+    }
+
+    /**
+     * Creates the renderer of a mesh that is not resident. A resident mesh is replaced with ReloadMesh() instead, so its
+     * buffers and its instances' cull volumes stay with the one renderer.
+     */
+    private static VoxelInstanceRenderer AddInstanceRenderer(String name, VoxelData mesh){
+        if(instance.instanceRenderers.containsKey(name)) throw new Error("voxel mesh " + name + " already has an instance renderer");
+        VoxelInstanceRenderer renderer = new VoxelInstanceRenderer(mesh);
+        instance.instanceRenderers.put(name, renderer);
+        instance.meshMemoryUsed += renderer.memorySize;
 
         //set the variant flag
         RendererVariant variant = RendererVariant.Standard;
         for(String cmp : FOLIAGE_NAMES){
-            if(mesh.name.equals(cmp)){
+            if(name.equals(cmp)){
                 variant = RendererVariant.Foliage;
                 break;
             }
         }
-        instance.variantFlags.put(mesh.name, variant);
+        instance.variantFlags.put(name, variant);
+        return renderer;
+    }
+
+    /**
+     * Swaps the buffers of a resident mesh for those of a reloaded mesh, keeping its instances. Meshes that are not
+     * resident are loaded from the changed file on their first instance instead.
+     * @param name
+     *      - the mesh's name.
+     * @param mesh
+     *      - the reloaded mesh, with its colors as palette indices.
+     */
+    public static void ReloadMesh(String name, VoxelData mesh){
+        VoxelInstanceRenderer renderer = instance.instanceRenderers.get(name);
+        if(renderer == null) return;
+        instance.meshMemoryUsed -= renderer.memorySize;
+        renderer.Reload(mesh);
+        instance.meshMemoryUsed += renderer.memorySize;
+    }
+
+    /**
+     * Frees the buffers of meshes without instances, least recently used first, until the resident meshes fit meshMemoryBudget.
+     */
+    public static void EvictMeshes(){
+        Iterator<Map.Entry<String, VoxelInstanceRenderer>> iterator = instance.instanceRenderers.entrySet().iterator();
+        while(instance.meshMemoryUsed > meshMemoryBudget && iterator.hasNext()){
+            Map.Entry<String, VoxelInstanceRenderer> entry = iterator.next();
+            if(entry.getValue().InstanceCount() > 0 || !VoxelLoader.HasMesh(entry.getKey())) continue;
+
+            entry.getValue().Free();
+            instance.meshMemoryUsed -= entry.getValue().memorySize;
+            instance.variantFlags.remove(entry.getKey());
+            iterator.remove();
+        }
     }
 
     /**
@@ -446,9 +512,14 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
      *      - local x-coordinate
      * @param z
      *      - local z-cordinate
+     * @return
+     *      - the instance's handle, for RemoveInstance().
      */
-    public static void AddMeshInstance(String name, int x, int z){
-        instance.instanceRenderers.get(name).AddInstance(x, z);
+    public static int AddMeshInstance(String name, int x, int z){
+        boolean resident = instance.instanceRenderers.containsKey(name);
+        int handle = GetInstanceRenderer(name).AddInstance(x, z);
+        if(!resident) EvictMeshes();
+        return handle;
     }
 
     /**
@@ -459,7 +530,22 @@ public class SceneRenderer implements GameObject, WindowResizeListener{
      *      - local z-cordinate
      */
     public static void RemoveInstance(String name, int x, int z){
-        instance.instanceRenderers.get(name).RemoveInstance(x, z);
+        VoxelInstanceRenderer renderer = instance.instanceRenderers.get(name);
+        if(renderer == null) return;
+        renderer.RemoveInstance(x, z);
+        if(renderer.InstanceCount() == 0) EvictMeshes();
+    }
+
+    /**
+     * Removes a mesh instance by the handle AddMeshInstance() returned for it.
+     * @param handle
+     *      - the instance's handle.
+     */
+    public static void RemoveInstance(String name, int handle){
+        VoxelInstanceRenderer renderer = instance.instanceRenderers.get(name);
+        if(renderer == null) throw new Error("there are no instances of mesh " + name);
+        renderer.RemoveInstance(handle);
+        if(renderer.InstanceCount() == 0) EvictMeshes();
     }
 
     /**
@@ -1,16 +1,21 @@
 package james;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-
 import static org.lwjgl.opengl.GL44C.*;
 
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.lwjgl.BufferUtils;
+
 public class Shader {
     public int id;
 
+    /**
+     * The shader's source files, relative to resources//shaders, and their stage types.
+     */
+    private String[] fileNames;
+    private int[] stageTypes;
+
     /**
      * Constructor for Shader object class.
      * @param vertexFileName
@@ -19,42 +24,10 @@ public class Shader {
      *      - the file name of the fragment shader, relative to resources//shaders, including its extension.
      */
     public Shader(String vertexFileName, String fragmentFileName) {
-        int vertex, fragment;
-
-        String vShaderCode = readFile(vertexFileName);
-        String fShaderCode = readFile(fragmentFileName);
-
-        
-        vertex = glCreateShader(GL_VERTEX_SHADER);
-        glShaderSource(vertex, vShaderCode);
-        glCompileShader(vertex);
-        int[] vsuccess = {0};
-        glGetShaderiv(vertex, GL_COMPILE_STATUS, vsuccess);
-        if(vsuccess[0] == 0){
-            throw new Error("vertex shader compilation failed\n\n" + vertexFileName + "\nshader log:\n" + glGetShaderInfoLog(vertex));
-        }
-
-        fragment = glCreateShader(GL_FRAGMENT_SHADER);
-        glShaderSource(fragment, fShaderCode);
-        glCompileShader(fragment);
-        int[] fsuccess = { 0 };
-        glGetShaderiv(fragment, GL_COMPILE_STATUS, fsuccess);
-        if(fsuccess[0] == 0){
-            throw new Error("fragment shader compilation failed\n\n" + fragmentFileName + "\nshader log:\n" +  glGetShaderInfoLog(fragment));
-        }
-
-        id = glCreateProgram();
-        glAttachShader(id, vertex);
-        glAttachShader(id, fragment);
-        glLinkProgram(id);
-        int[] success = { 0 };
-        glGetProgramiv(id, GL_LINK_STATUS, success);
-        if (success[0] == 0) {
-            throw new Error("shader program failed to link\nshader log:\n" + glGetProgramInfoLog(id));
-        }
-
-        glDeleteShader(vertex);
-        glDeleteShader(fragment);
+        fileNames = new String[]{ vertexFileName, fragmentFileName };
+        stageTypes = new int[]{ GL_VERTEX_SHADER, GL_FRAGMENT_SHADER };
+        id = Link(new String[]{ readFile(vertexFileName), readFile(fragmentFileName) });
+        HotReloader.AddShader(this);
     }
 
     /**
@@ -63,29 +36,125 @@ public class Shader {
      *      - the file name of the compute shader, relative to resources//shaders, including its extension.
      */
     public Shader(String computeFileName){
-        int compute;
+        fileNames = new String[]{ computeFileName };
+        stageTypes = new int[]{ GL_COMPUTE_SHADER };
+        id = Link(new String[]{ readFile(computeFileName) });
+        HotReloader.AddShader(this);
+    }
 
-        String cShaderCode = readFile(computeFileName);
+    /**
+     * @return whether the shader is built from the file.
+     * @param fileName
+     *      - the file name, relative to resources//shaders.
+     */
+    public boolean UsesFile(String fileName){
+        for(String name : fileNames) if(name.equals(fileName)) return true;
+        return false;
+    }
 
-        compute = glCreateShader(GL_COMPUTE_SHADER);
-        glShaderSource(compute, cShaderCode);
-        glCompileShader(compute);
-        int[] csuccess = {0};
-        glGetShaderiv(compute, GL_COMPILE_STATUS, csuccess);
-        if(csuccess[0] == 0){
-            throw new Error("compute shader compilation failed\n\n" + computeFileName + "\nshader log:\n" + glGetShaderInfoLog(compute));
+    /**
+     * Recompiles the shader from its source files. If any stage fails to compile or the program fails to link,
+     * the error is printed and the current program is kept.
+     * @return
+     *      - whether the program was replaced.
+     */
+    public boolean Reload(){
+        String[] sources = new String[fileNames.length];
+        int program;
+        try {
+            for(int i = 0; i < fileNames.length; i++) sources[i] = readFile(fileNames[i]);
+            program = Link(sources);
+        } catch (Error e) {
+            System.out.println("could not reload shader " + String.join(", ", fileNames) + ", keeping the previous program");
+            System.out.println(e.getMessage());
+            return false;
+        }
+
+        CopyUniforms(id, program);
+        glDeleteProgram(id);
+        id = program;
+        return true;
+    }
+
+    /**
+     * Sets every uniform of the program to its value in the previous program, read back from GL, so reloading costs the
+     * setters nothing. Uniforms the program does not have anymore, or of a type that is never set, are left as they are.
+     */
+    private static void CopyUniforms(int previous, int program){
+        IntBuffer size = BufferUtils.createIntBuffer(1);
+        IntBuffer type = BufferUtils.createIntBuffer(1);
+        FloatBuffer floats = BufferUtils.createFloatBuffer(16);
+        IntBuffer ints = BufferUtils.createIntBuffer(4);
+
+        int uniformCount = glGetProgrami(previous, GL_ACTIVE_UNIFORMS);
+        for(int i = 0; i < uniformCount; i++){
+            String name = glGetActiveUniform(previous, i, size, type);
+            if(name.endsWith("[0]")) name = name.substring(0, name.length() - 3);
+            for(int j = 0; j < size.get(0); j++){
+                String element = size.get(0) > 1 ? name + "[" + String.valueOf(j) + "]" : name;
+                int from = glGetUniformLocation(previous, element);
+                int to = glGetUniformLocation(program, element);
+                //uniform block members have no location
+                if(from < 0 || to < 0) continue;
+
+                switch(type.get(0)){
+                    case GL_FLOAT, GL_FLOAT_VEC2, GL_FLOAT_VEC3, GL_FLOAT_VEC4, GL_FLOAT_MAT4 -> {
+                        glGetUniformfv(previous, from, floats.clear());
+                        switch(type.get(0)){
+                            case GL_FLOAT -> glProgramUniform1fv(program, to, floats.limit(1));
+                            case GL_FLOAT_VEC2 -> glProgramUniform2fv(program, to, floats.limit(2));
+                            case GL_FLOAT_VEC3 -> glProgramUniform3fv(program, to, floats.limit(3));
+                            case GL_FLOAT_VEC4 -> glProgramUniform4fv(program, to, floats.limit(4));
+                            default -> glProgramUniformMatrix4fv(program, to, false, floats.limit(16));
+                        }
+                    }
+                    case GL_INT, GL_BOOL, GL_SAMPLER_2D, GL_SAMPLER_2D_ARRAY, GL_SAMPLER_2D_MULTISAMPLE, GL_SAMPLER_2D_SHADOW, GL_SAMPLER_3D -> {
+                        glGetUniformiv(previous, from, ints.clear());
+                        glProgramUniform1iv(program, to, ints.limit(1));
+                    }
+                    default -> {}
+                }
+            }
         }
+    }
 
-        id = glCreateProgram();
-        glAttachShader(id, compute);
-        glLinkProgram(id);
+    /**
+     * Compiles each stage and links them into a new program.
+     * @return the program's id.
+     */
+    private int Link(String[] sources){
+        int[] stages = new int[sources.length];
+        for(int i = 0; i < sources.length; i++){
+            stages[i] = glCreateShader(stageTypes[i]);
+            glShaderSource(stages[i], sources[i]);
+            glCompileShader(stages[i]);
+            int[] success = { 0 };
+            glGetShaderiv(stages[i], GL_COMPILE_STATUS, success);
+            if(success[0] == 0){
+                String log = glGetShaderInfoLog(stages[i]);
+                for(int j = 0; j <= i; j++) glDeleteShader(stages[j]);
+                throw new Error(StageName(stageTypes[i]) + " shader compilation failed\n\n" + fileNames[i] + "\nshader log:\n" + log);
+            }
+        }
+
+        int program = glCreateProgram();
+        for(int stage : stages) glAttachShader(program, stage);
+        glLinkProgram(program);
+        for(int stage : stages) glDeleteShader(stage);
         int[] success = { 0 };
-        glGetProgramiv(id, GL_LINK_STATUS, success);
+        glGetProgramiv(program, GL_LINK_STATUS, success);
         if (success[0] == 0) {
-            throw new Error("compute shader program failed to link\nshader log:\n" + glGetProgramInfoLog(id));
+            String log = glGetProgramInfoLog(program);
+            glDeleteProgram(program);
+            throw new Error((stageTypes[0] == GL_COMPUTE_SHADER ? "compute shader" : "shader") + " program failed to link\nshader log:\n" + log);
         }
+        return program;
+    }
 
-        glDeleteShader(compute);
+    private static String StageName(int stageType){
+        if(stageType == GL_VERTEX_SHADER) return "vertex";
+        if(stageType == GL_FRAGMENT_SHADER) return "fragment";
+        return "compute";
     }
 
     public void Use(){
@@ -110,8 +179,7 @@ public class Shader {
     }
     public void SetVec2(String name, float x, float y) {
         Use();
-        float[] value = {x, y};
-        glUniform2fv(glGetUniformLocation(id, name), value);
+        glUniform2f(glGetUniformLocation(id, name), x, y);
     }
     public void SetMat4x4(String name, float[] value){
         Use();
@@ -124,27 +192,6 @@ public class Shader {
     }*/
 
     private String readFile(String file) {
-        BufferedReader reader = null;
-        StringBuilder sourceBuilder = new StringBuilder();
-        try {
-            String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + "shaders\\" + file;
-            reader = new BufferedReader(new InputStreamReader(new FileInputStream(filePath)));
-                
-            String line;
-                
-            while ((line = reader.readLine()) != null) {
-                sourceBuilder.append(line + "\n");
-            }
-        } catch(IOException e) {
-            e.printStackTrace();
-        } finally {
-            try {
-                reader.close();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        }
-        
-        return sourceBuilder.toString();		
+        return AssetPack.ReadText("shaders\\" + file);
     }
 }
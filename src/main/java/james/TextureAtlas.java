@@ -1,43 +1,39 @@
 package james;
 
-import java.io.File;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import static org.lwjgl.opengl.GL44C.*;
 import org.lwjgl.BufferUtils;
 import static org.lwjgl.stb.STBImage.stbi_image_free;
-import static org.lwjgl.stb.STBImage.stbi_load;
+import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 
 @SuppressWarnings("all")
 public class TextureAtlas {
     private int atlasCellWidth, atlasCellHeight;
     public int textureUnit;
 
+    private String path;
+    private int atlas;
+    private int atlasTextureUnit;
+
+    /**
+     * Decoded pixels of an atlas image, in the rgba_8888 format.
+     */
+    public static class AtlasImage {
+        public byte[] data;
+        public int width, height;
+    }
+
     public TextureAtlas(String path, int atlasCellWidth, int atlasCellHeight, int textureUnit){
         this.atlasCellWidth = atlasCellWidth;
         this.atlasCellHeight = atlasCellHeight;
+        this.path = path;
+        this.atlasTextureUnit = textureUnit;
 
-        int width;
-        int height;
-        int nrChannels;
-
-        int[] widthBuffer = { 0 };
-        int[] heightBuffer = { 0 };
-        int[] nrChannelBuffer = { 0 };
-        path = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
-        ByteBuffer dataBuffer = stbi_load(path, widthBuffer, heightBuffer, nrChannelBuffer, 0);
-        if(dataBuffer == null) throw new Error("could not read file at " + path);
-        width = widthBuffer[0];
-        height = heightBuffer[0];
-        nrChannels = nrChannelBuffer[0];
-        
-        byte[] data = new byte[width * height * nrChannels];
-        dataBuffer.get(data);
-
-        stbi_image_free(dataBuffer);
+        AtlasImage image = Decode(path);
         
         glActiveTexture(GL_TEXTURE0 + textureUnit);
-        int atlas = glGenTextures();
+        atlas = glGenTextures();
         glBindTexture(GL_TEXTURE_2D_ARRAY, atlas);
 
         glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_WRAP_S, GL_CLAMP_TO_EDGE);
@@ -46,6 +42,54 @@ public class TextureAtlas {
         glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MIN_FILTER, GL_LINEAR);
         //glTexParameteri(GL_TEXTURE_2D_ARRAY, GL_TEXTURE_MAX_LEVEL, 4);
 
+        Upload(image);
+        HotReloader.AddAtlas(this);
+    }
+
+    /**
+     * @return the atlas image's path, relative to \\resources.
+     */
+    public String GetPath(){
+        return path;
+    }
+
+    /**
+     * Decodes an atlas image. Does not touch any GL state, so it may run on any thread.
+     * @param path
+     *      - the image's path, relative to \\resources.
+     * @return
+     *      - the decoded pixels.
+     */
+    public static AtlasImage Decode(String path){
+        int[] widthBuffer = { 0 };
+        int[] heightBuffer = { 0 };
+        int[] nrChannelBuffer = { 0 };
+        ByteBuffer dataBuffer = stbi_load_from_memory(AssetPack.ReadNative(path), widthBuffer, heightBuffer, nrChannelBuffer, 0);
+        if(dataBuffer == null) throw new Error("could not read file at " + path);
+
+        AtlasImage image = new AtlasImage();
+        image.width = widthBuffer[0];
+        image.height = heightBuffer[0];
+        image.data = new byte[image.width * image.height * nrChannelBuffer[0]];
+        dataBuffer.get(image.data);
+
+        stbi_image_free(dataBuffer);
+        return image;
+    }
+
+    /**
+     * Replaces the atlas texture's cells with the image's.
+     * @param image
+     *      - the decoded atlas image.
+     */
+    public void Upload(AtlasImage image){
+        int width = image.width;
+        int height = image.height;
+        byte[] data = image.data;
+
+        glActiveTexture(GL_TEXTURE0 + atlasTextureUnit);
+        glBindTexture(GL_TEXTURE_2D_ARRAY, atlas);
+
         int xCt = width / atlasCellWidth;
         int yCt = height / atlasCellHeight;
 
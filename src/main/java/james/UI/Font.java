@@ -1,20 +1,19 @@
 package james.UI;
 
 import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.util.HashMap;
 
 import org.lwjgl.BufferUtils;
 
-import james.Main;
+import james.AssetPack;
 
 import static org.lwjgl.opengl.GL44C.*;
 import static org.lwjgl.stb.STBImage.stbi_image_free;
-import static org.lwjgl.stb.STBImage.stbi_load;
+import static org.lwjgl.stb.STBImage.stbi_load_from_memory;
 
 /**
  * An object representing a font and its associated metadata. Should be registered with the static AddFont() method after being created.
@@ -85,8 +84,7 @@ public class Font {
         IntBuffer widthBuffer = BufferUtils.createIntBuffer(1);
         IntBuffer heightBuffer = BufferUtils.createIntBuffer(1);
         IntBuffer nrChannelBuffer = BufferUtils.createIntBuffer(1);
-        path = new File("").getAbsolutePath() + "\\src\\main\\resources\\" + path;
-        ByteBuffer dataBuffer = stbi_load(path, widthBuffer, heightBuffer, nrChannelBuffer, 0);
+        ByteBuffer dataBuffer = stbi_load_from_memory(AssetPack.ReadNative(path), widthBuffer, heightBuffer, nrChannelBuffer, 0);
         if(dataBuffer == null) throw new Error("could not read file at " + path);
         atlasWidth = widthBuffer.get();
         atlasHeight = heightBuffer.get();
@@ -131,14 +129,8 @@ public class Font {
         private int imageSize;
 
         public FontMetaData(String path, int paddingDesired) {
-            path = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
             this.paddingDesired = paddingDesired;
-            try {
-                reader = new BufferedReader(new FileReader(path));
-            } catch (Exception e) {
-                e.printStackTrace();
-                System.out.println("could not read font metadata file " + path);
-            }
+            reader = new BufferedReader(new StringReader(AssetPack.ReadText(path)));
             HashMap<String, String> currentLine = readNextLine();
             padding = readIntegerList(currentLine.get("padding"));
             paddingWidth = padding[PAD_RIGHT] + padding[PAD_LEFT];
@@ -0,0 +1,132 @@
+package james;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+/**
+ * Reads MagicaVoxel .vox files into VoxelGrids, one per model in the file. Only the SIZE, XYZI and RGBA chunks are read,
+ * every other chunk (scene graph, materials, layers) is skipped.
+ *
+ * Voxels are placed the same way MagicaVoxel's .ply export places them, so a .vox file and its .ply export package to the same mesh.
+ */
+public class VoxImporter {
+    private static final int ID_VOX = ChunkId("VOX ");
+    private static final int ID_MAIN = ChunkId("MAIN");
+    private static final int ID_SIZE = ChunkId("SIZE");
+    private static final int ID_XYZI = ChunkId("XYZI");
+    private static final int ID_RGBA = ChunkId("RGBA");
+
+    /**
+     * Reads every model in the .vox file. The file's z-axis is treated as up, so it is swapped with the y-axis.
+     * @param path
+     *      - the path of the file relative to \\resources, including the file extension.
+     * @return
+     *      - a grid for each model, in the order they are stored in the file.
+     */
+    public static VoxelGrid[] ImportVox(String path){
+        String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
+        ByteBuffer buffer;
+        //read rather than mapped, as a live mapping keeps the file from being saved again on Windows
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filePath))).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new Error("could not read voxel file " + filePath);
+        }
+
+        if(buffer.remaining() < 20 || buffer.getInt(0) != ID_VOX || buffer.getInt(8) != ID_MAIN) throw new Error("invalid voxel file " + filePath);
+        int end = 20 + buffer.getInt(12) + buffer.getInt(16);
+        if(end > buffer.limit()) throw new Error("invalid voxel file " + filePath);
+
+        //collect the model chunks and the palette
+        ArrayList<int[]> sizes = new ArrayList<>();
+        ArrayList<Integer> voxelChunks = new ArrayList<>();
+        int[] palette = DefaultPalette();
+        int position = 20 + buffer.getInt(12);
+        while(position + 12 <= end){
+            int id = buffer.getInt(position);
+            int contentSize = buffer.getInt(position + 4);
+            int childrenSize = buffer.getInt(position + 8);
+            int content = position + 12;
+            if(contentSize < 0 || childrenSize < 0 || content + contentSize > end) throw new Error("invalid voxel file " + filePath);
+
+            if(id == ID_SIZE){
+                sizes.add(new int[]{ buffer.getInt(content), buffer.getInt(content + 4), buffer.getInt(content + 8) });
+            }
+            else if(id == ID_XYZI){
+                if(voxelChunks.size() != sizes.size() - 1) throw new Error("XYZI chunk without a SIZE chunk in " + filePath);
+                if(buffer.getInt(content) * 4 + 4 > contentSize) throw new Error("invalid voxel file " + filePath);
+                voxelChunks.add(content);
+            }
+            else if(id == ID_RGBA){
+                //palette entry i is used by color index i + 1
+                for(int i = 0; i < 255; i++){
+                    int rgba = buffer.getInt(content + i * 4);
+                    palette[i + 1] = PackColor(rgba & 0xFF, (rgba >> 8) & 0xFF, (rgba >> 16) & 0xFF);
+                }
+            }
+            position = content + contentSize + childrenSize;
+        }
+
+        //build a grid for each model, centered in x and z the way the .ply export centers it
+        VoxelGrid[] result = new VoxelGrid[voxelChunks.size()];
+        for(int m = 0; m < result.length; m++){
+            int[] size = sizes.get(m);
+            int content = voxelChunks.get(m);
+            int voxelCount = buffer.getInt(content);
+            int[] x = new int[voxelCount];
+            int[] y = new int[voxelCount];
+            int[] z = new int[voxelCount];
+            int[] colors = new int[voxelCount];
+            for(int i = 0; i < voxelCount; i++){
+                int voxel = content + 4 + i * 4;
+                x[i] = (buffer.get(voxel) & 0xFF) - size[0] / 2;
+                y[i] = buffer.get(voxel + 2) & 0xFF;
+                z[i] = (buffer.get(voxel + 1) & 0xFF) - size[1] / 2;
+                colors[i] = palette[buffer.get(voxel + 3) & 0xFF];
+            }
+            result[m] = VoxelGrid.FromPoints(x, y, z, colors, voxelCount);
+        }
+        return result;
+    }
+
+    /**
+     * Packs a color the same way new Color(red, green, blue, 256).rgba_8_8_8_8 does.
+     */
+    private static int PackColor(int red, int green, int blue){
+        return (red & 0xFF) << 24 | (green & 0xFF) << 16 | (blue & 0xFF) << 8 | 0xFF;
+    }
+
+    /**
+     * MagicaVoxel's palette for files without an RGBA chunk: a 6x6x6 color cube (without black),
+     * followed by ten-step red, green, blue and gray ramps.
+     */
+    private static int[] DefaultPalette(){
+        int[] palette = new int[256];
+        int[] cube = { 0xFF, 0xCC, 0x99, 0x66, 0x33, 0x00 };
+        int[] ramp = { 0xEE, 0xDD, 0xBB, 0xAA, 0x88, 0x77, 0x55, 0x44, 0x22, 0x11 };
+        int index = 1;
+        for(int r = 0; r < 6; r++){
+            for(int g = 0; g < 6; g++){
+                for(int b = 0; b < 6; b++){
+                    if(index < 216) palette[index++] = PackColor(cube[r], cube[g], cube[b]);
+                }
+            }
+        }
+        for(int i = 0; i < 10; i++){
+            palette[216 + i] = PackColor(ramp[i], 0, 0);
+            palette[226 + i] = PackColor(0, ramp[i], 0);
+            palette[236 + i] = PackColor(0, 0, ramp[i]);
+            palette[246 + i] = PackColor(ramp[i], ramp[i], ramp[i]);
+        }
+        return palette;
+    }
+
+    private static int ChunkId(String id){
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+}
@@ -1,7 +1,8 @@
 package james;
 
 /**
- * Stores voxel mesh data, in the form it is stored in the .voxel files.
+ * Stores voxel mesh data, in the form it is stored in the .voxel files. Per-vertex data is kept in flat
+ * primitive arrays (structure of arrays), so whole fields can be copied in bulk to and from files and buffers.
  */
 public class VoxelData {
     public static int BOTTOM = 0, TOP = 1, LEFT = 2, RIGHT = 3, BACK = 4, FRONT = 5;
@@ -17,10 +18,15 @@ public class VoxelData {
     public int voxelCount;
 
     /**
-     * The zero-indexed vertices, in which for any vertex i,
-     * vertices[i] = {x, y, z}.
+     * The number of vertices in the mesh.
      */
-    public int[][] vertices;
+    public int vertexCount;
+
+    /**
+     * The zero-indexed vertex positions, in which for any vertex i,
+     * {x, y, z} = {positions[i * 3], positions[i * 3 + 1], positions[i * 3 + 2]}.
+     */
+    public int[] positions;
 
     /**
      * The mesh's triangles.
@@ -46,27 +52,35 @@ public class VoxelData {
     /**
      * The ambient occlusion value for each vertex.
      */
-    public int[] ambientOcclusion;
+    public int[] ao;
+
+    /**
+     * Lower detail versions of the mesh, lods[i] being built from blocks of 2^(i+1) voxels. Their positions are scaled back up
+     * to this mesh's units. Empty if the mesh has no levels of detail.
+     */
+    public VoxelData[] lods;
 
     /**
      * Creates a voxel mesh data object with the presumably initialized data.3
      * @param voxelCount
-     * @param vertices
+     * @param positions
      * @param indices
      * @param faceOffsets
      * @param faceCounts
      * @param colors
-     * @param ambientOcclusion
+     * @param ao
      */
-    public VoxelData(int voxelCount, int[][] vertices, int[] indices, int[] faceOffsets, int[] faceCounts, int[] colors, int[] ambientOcclusion){
+    public VoxelData(int voxelCount, int[] positions, int[] indices, int[] faceOffsets, int[] faceCounts, int[] colors, int[] ao){
         this.name = "";
         this.voxelCount = voxelCount;
-        this.vertices = vertices;
+        this.vertexCount = colors.length;
+        this.positions = positions;
         this.indices = indices;
         this.faceOffsets = faceOffsets;
         this.faceCounts = faceCounts;
         this.colors = colors;
-        this.ambientOcclusion = ambientOcclusion;
+        this.ao = ao;
+        this.lods = new VoxelData[0];
     }
     
     /**
@@ -79,11 +93,13 @@ public class VoxelData {
     public VoxelData(String name, int voxelCount, int vertexCount, int triangleCount){
         this.name = name;
         this.voxelCount = voxelCount;
-        this.vertices = new int[vertexCount][3];
+        this.vertexCount = vertexCount;
+        this.positions = new int[3 * vertexCount];
         this.indices = new int[3 * triangleCount];
         this.faceOffsets = new int[6];
         this.faceCounts = new int[6];
         this.colors = new int[vertexCount];
-        this.ambientOcclusion = new int[vertexCount];
+        this.ao = new int[vertexCount];
+        this.lods = new VoxelData[0];
     }
 }
\ No newline at end of file
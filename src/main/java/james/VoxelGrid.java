@@ -0,0 +1,148 @@
+package james;
+
+/**
+ * Dense voxel grid, the intermediate form between a model's source file (.ply, .vox) and the packaged .voxel mesh.
+ * Voxels are stored in one flat array, with z being the fastest-changing axis.
+ */
+public class VoxelGrid {
+
+    /**
+     * The grid's dimensions.
+     */
+    public int xLen, yLen, zLen;
+
+    /**
+     * The color of each voxel in the rgba_8888 format, or 0 if there is no voxel. Indexed by Index(x, y, z).
+     */
+    public int[] colors;
+
+    /**
+     * Creates an empty grid of the given dimensions.
+     * @param xLen
+     * @param yLen
+     * @param zLen
+     */
+    public VoxelGrid(int xLen, int yLen, int zLen){
+        this.xLen = xLen;
+        this.yLen = yLen;
+        this.zLen = zLen;
+        this.colors = new int[xLen * yLen * zLen];
+    }
+
+    /**
+     * Builds a grid from a list of voxel points, offset such that the lowest point (or the origin, if it is lower) is at (0, 0, 0).
+     * @param x
+     *      - x-coordinate of each point.
+     * @param y
+     *      - y-coordinate of each point.
+     * @param z
+     *      - z-coordinate of each point.
+     * @param colors
+     *      - rgba_8888 color of each point.
+     * @param count
+     *      - the number of points in the arrays.
+     * @return
+     *      - the populated grid.
+     */
+    public static VoxelGrid FromPoints(int[] x, int[] y, int[] z, int[] colors, int count){
+        int minX = 0, minY = 0, minZ = 0;
+        int maxX = 0, maxY = 0, maxZ = 0;
+        for(int i = 0; i < count; i++){
+            if(x[i] > maxX) maxX = x[i];
+            if(y[i] > maxY) maxY = y[i];
+            if(z[i] > maxZ) maxZ = z[i];
+            if(x[i] < minX) minX = x[i];
+            if(y[i] < minY) minY = y[i];
+            if(z[i] < minZ) minZ = z[i];
+        }
+        VoxelGrid grid = new VoxelGrid(maxX - minX + 1, maxY - minY + 1, maxZ - minZ + 1);
+        for(int i = 0; i < count; i++){
+            grid.colors[grid.Index(x[i] - minX, y[i] - minY, z[i] - minZ)] = colors[i];
+        }
+        return grid;
+    }
+
+    /**
+     * Builds a grid from color data in the nested array form, where null is an empty voxel.
+     * @param data
+     *      - the voxel colors, arranged as data[x][y][z].
+     * @return
+     *      - the populated grid.
+     */
+    public static VoxelGrid FromColors(Color[][][] data){
+        VoxelGrid grid = new VoxelGrid(data.length, data[0].length, data[0][0].length);
+        for(int x = 0; x < grid.xLen; x++){
+            for(int y = 0; y < grid.yLen; y++){
+                for(int z = 0; z < grid.zLen; z++){
+                    if(data[x][y][z] != null) grid.colors[grid.Index(x, y, z)] = data[x][y][z].rgba_8_8_8_8;
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Builds a lower detail grid in which every factor^3 block of voxels becomes one voxel. A block is solid if at least half
+     * of its voxels are, and takes the most common color among them (the first one found on ties).
+     * @param factor
+     *      - the block size, at least 2.
+     * @return
+     *      - the downsampled grid, with each dimension divided by factor and rounded up.
+     */
+    public VoxelGrid Downsample(int factor){
+        VoxelGrid result = new VoxelGrid((xLen + factor - 1) / factor, (yLen + factor - 1) / factor, (zLen + factor - 1) / factor);
+        int[] blockColors = new int[factor * factor * factor];
+        int[] blockCounts = new int[blockColors.length];
+        for(int bx = 0; bx < result.xLen; bx++){
+            for(int by = 0; by < result.yLen; by++){
+                for(int bz = 0; bz < result.zLen; bz++){
+                    //count the solid voxels of each color in the block
+                    int distinctColors = 0;
+                    int solidCount = 0;
+                    int cellCount = 0;
+                    for(int x = bx * factor; x < Math.min(xLen, (bx + 1) * factor); x++){
+                        for(int y = by * factor; y < Math.min(yLen, (by + 1) * factor); y++){
+                            for(int z = bz * factor; z < Math.min(zLen, (bz + 1) * factor); z++){
+                                cellCount++;
+                                int color = colors[Index(x, y, z)];
+                                if(color == 0) continue;
+                                solidCount++;
+                                int c = 0;
+                                while(c < distinctColors && blockColors[c] != color) c++;
+                                if(c == distinctColors){
+                                    blockColors[c] = color;
+                                    blockCounts[c] = 0;
+                                    distinctColors++;
+                                }
+                                blockCounts[c]++;
+                            }
+                        }
+                    }
+                    if(solidCount * 2 < cellCount) continue;
+
+                    int majority = 0;
+                    for(int c = 1; c < distinctColors; c++){
+                        if(blockCounts[c] > blockCounts[majority]) majority = c;
+                    }
+                    result.colors[result.Index(bx, by, bz)] = blockColors[majority];
+                }
+            }
+        }
+        return result;
+    }
+
+    public int Index(int x, int y, int z){
+        return (x * yLen + y) * zLen + z;
+    }
+
+    /**
+     * @return the voxel's rgba_8888 color, or 0 if the voxel is empty.
+     */
+    public int Get(int x, int y, int z){
+        return colors[(x * yLen + y) * zLen + z];
+    }
+
+    public boolean IsSolid(int x, int y, int z){
+        return colors[(x * yLen + y) * zLen + z] != 0;
+    }
+}
@@ -2,29 +2,66 @@ package james;
 
 import static org.lwjgl.opengl.GL44C.*;
 
-import java.util.ArrayList;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
+import org.lwjgl.BufferUtils;
+
+/**
+ * Draws every instance of one voxel mesh with a single instanced draw call. The instance buffer holds the drawn (visible)
+ * instances packed at its front; it is patched from the cull tree's visibility changes, moving the last drawn instance into
+ * the slot of a hidden one, so a frame only writes the instances whose visibility changed (see InstanceBuffer).
+ *
+ * Instances are kept in an InstanceStore and referred to by its handles. Their slots are their ids in the cull tree.
+ *
+ * The shadow pass draws its own list of instances, those the cull tree finds inside the sun's view, kept the same way as the
+ * main pass's list in a second instance buffer. Shadow casters outside of the camera's view are then still drawn to the
+ * shadow map, and instances that are only visible to the camera are not.
+ */
 public class VoxelInstanceRenderer {
-    
-    private ArrayList<Instance> instances;
-    
+
+    /**
+     * On-screen size of a voxel, in pixels, below which the next level of detail is drawn. LOD_VOXEL_PIXELS[i] switches
+     * from level i to level i + 1.
+     */
+    private static final float[] LOD_VOXEL_PIXELS = { 1.5f, 0.75f };
+
+    private InstanceStore instances;
+    private CullingQuadTree.VisibilityChanges visibilityChanges;
+    private CullingQuadTree.VisibilityChanges shadowVisibilityChanges;
+
+    /**
+     * The instances drawn by the main pass and by the shadow pass.
+     */
+    private DrawList drawList;
+    private DrawList shadowList;
+
     private int VAO;
+    private int shadowVAO;
     private int VBO;
     private int EBO;
-    private int indexCount;
-    private int shadowIndexCount;
-    private int activeInstanceCount;
+    private int indexType;
+
+    //per level of detail, level 0 being the full detail mesh
+    private int[] indexCounts;
+    private int[] shadowIndexCounts;
+    private long[] indexOffsets;
+    private int[] baseVertices;
     private int modelWidth, modelDepth;
-    private int instanceVBO;
 
-    private boolean requiresUpdate;
+    /**
+     * Size of the mesh's vertex and index buffers, in bytes.
+     */
+    public long memorySize;
 
     public VoxelInstanceRenderer(String meshName){
-        this(VoxelLoader.meshObjects.get(meshName));
+        this(VoxelLoader.GetMesh(meshName));
     }
 
     public VoxelInstanceRenderer(VoxelData mesh){
-        instances = new ArrayList<>();
+        instances = new InstanceStore();
+        visibilityChanges = new CullingQuadTree.VisibilityChanges();
+        shadowVisibilityChanges = new CullingQuadTree.VisibilityChanges();
 
         VAO = glGenVertexArrays();
         glBindVertexArray(VAO);
@@ -32,99 +69,288 @@ public class VoxelInstanceRenderer {
         glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
         VBO = glGenBuffers();
         glBindBuffer(GL_ARRAY_BUFFER, VBO);
-        glVertexAttribPointer(0, 3, GL_FLOAT, false, 16, (long)0);
-        glVertexAttribPointer(1, 1, GL_FLOAT, false, 16, (long)(12));
+        glVertexAttribIPointer(0, 2, GL_INT, 8, (long)0);
         glEnableVertexAttribArray(0);
-        glEnableVertexAttribArray(1);
         
-        instanceVBO = glGenBuffers();
-        glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
-        glVertexAttribIPointer(2, 1, GL_INT, 0, 0);
-        glVertexAttribDivisor(2, 1);
-        glEnableVertexAttribArray(2);
+        drawList = new DrawList(new InstanceBuffer(VAO, 2), false);
 
-        RenderMeshData renderMesh = new RenderMeshData(mesh);
+        //the shadow pass reads the same mesh with its own instance buffer
+        shadowVAO = glGenVertexArrays();
+        glBindVertexArray(shadowVAO);
+        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
+        glBindBuffer(GL_ARRAY_BUFFER, VBO);
+        glVertexAttribIPointer(0, 2, GL_INT, 8, (long)0);
+        glEnableVertexAttribArray(0);
 
-        //vertexCount = renderMesh.vertexCount;
-        indexCount = renderMesh.culledIndexCount;
-        shadowIndexCount = renderMesh.completeIndexCount;
-        modelWidth = renderMesh.width;
-        modelDepth = renderMesh.depth;
+        shadowList = new DrawList(new InstanceBuffer(shadowVAO, 2), true);
 
-        glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
-        glBufferData(GL_ELEMENT_ARRAY_BUFFER, renderMesh.indices, GL_STATIC_DRAW);
+        UploadMesh(mesh);
+    }
+
+    /**
+     * Replaces the mesh drawn by the renderer, keeping its instances.
+     * @param mesh
+     *      - the new mesh, with its colors as palette indices.
+     */
+    public void Reload(VoxelData mesh){
+        int previousWidth = modelWidth, previousDepth = modelDepth;
+        UploadMesh(mesh);
+
+        //the instances' cull volumes depend on the model's footprint
+        if(modelWidth != previousWidth || modelDepth != previousDepth){
+            ApplyVisibilityChanges();
+            for(int i = 0; i < instances.count; i++){
+                CullingQuadTree.RemoveVolume(instances.cullVolumes[i]);
+                instances.cullVolumes[i] = CullingQuadTree.AddVolume(instances.x[i], instances.z[i], modelWidth, modelDepth, visibilityChanges, shadowVisibilityChanges, InstanceStore.SlotOf(instances.handles[i]));
+                drawList.Show(i);
+                shadowList.Show(i);
+            }
+        }
+    }
+
+    /**
+     * Packages the mesh and its levels of detail and uploads them to the vertex and index buffers.
+     */
+    private void UploadMesh(VoxelData mesh){
+        //package every level of detail, they are stored one after the other in the same buffers
+        int lodCount = mesh.lods.length + 1;
+        RenderMeshData[] renderMeshes = new RenderMeshData[lodCount];
+        indexCounts = new int[lodCount];
+        shadowIndexCounts = new int[lodCount];
+        indexOffsets = new long[lodCount];
+        baseVertices = new int[lodCount];
+        boolean shortIndices = true;
+        int vertexCount = 0, indexCount = 0;
+        for(int i = 0; i < lodCount; i++){
+            RenderMeshData renderMesh = new RenderMeshData(i == 0 ? mesh : mesh.lods[i - 1]);
+            renderMeshes[i] = renderMesh;
+            indexCounts[i] = renderMesh.culledIndexCount;
+            shadowIndexCounts[i] = renderMesh.completeIndexCount;
+            indexOffsets[i] = indexCount;
+            baseVertices[i] = vertexCount;
+            shortIndices &= renderMesh.shortIndices != null;
+            vertexCount += renderMesh.vertexCount;
+            indexCount += renderMesh.completeIndexCount;
+        }
+        modelWidth = renderMeshes[0].width;
+        modelDepth = renderMeshes[0].depth;
+
+        int[] vertices = new int[2 * vertexCount];
+        for(int i = 0; i < lodCount; i++){
+            System.arraycopy(renderMeshes[i].vertices, 0, vertices, 2 * baseVertices[i], renderMeshes[i].vertices.length);
+        }
+
+        memorySize = 8L * vertexCount + (shortIndices ? 2L : 4L) * indexCount;
+
+        if(shortIndices){
+            indexType = GL_UNSIGNED_SHORT;
+            short[] indices = new short[indexCount];
+            for(int i = 0; i < lodCount; i++){
+                System.arraycopy(renderMeshes[i].shortIndices, 0, indices, (int)indexOffsets[i], renderMeshes[i].completeIndexCount);
+                indexOffsets[i] *= 2;
+            }
+            glBindVertexArray(VAO);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        }
+        else {
+            indexType = GL_UNSIGNED_INT;
+            int[] indices = new int[indexCount];
+            for(int i = 0; i < lodCount; i++){
+                RenderMeshData renderMesh = renderMeshes[i];
+                for(int j = 0; j < renderMesh.completeIndexCount; j++){
+                    indices[(int)indexOffsets[i] + j] = renderMesh.indices != null ? renderMesh.indices[j] : renderMesh.shortIndices[j] & 0xFFFF;
+                }
+            }
+
+            for(int i = 0; i < lodCount; i++) indexOffsets[i] *= 4;
+            glBindVertexArray(VAO);
+            glBindBuffer(GL_ELEMENT_ARRAY_BUFFER, EBO);
+            glBufferData(GL_ELEMENT_ARRAY_BUFFER, indices, GL_STATIC_DRAW);
+        }
         
         glBindBuffer(GL_ARRAY_BUFFER, VBO);
-        glBufferData(GL_ARRAY_BUFFER, renderMesh.vertices, GL_STATIC_DRAW);
-
-        UpdateInstanceData();
+        glBufferData(GL_ARRAY_BUFFER, vertices, GL_STATIC_DRAW);
     }
 
-    public void AddInstance(int x, int z){
-        requiresUpdate = true;
-        instances.add(new Instance(x, z, modelWidth, modelDepth));
+    /**
+     * Adds an instance at the position. There can be at most one instance of the mesh per position.
+     * @return
+     *      - the instance's handle.
+     */
+    public int AddInstance(int x, int z){
+        int handle = instances.Add(x, z);
+        int index = instances.IndexOf(handle);
+        instances.cullVolumes[index] = CullingQuadTree.AddVolume(x, z, modelWidth, modelDepth, visibilityChanges, shadowVisibilityChanges, InstanceStore.SlotOf(handle));
+        drawList.Show(index);
+        shadowList.Show(index);
+        return handle;
     }
 
+    /**
+     * Removes the instance at the position, if there is one.
+     */
     public void RemoveInstance(int x, int z){
-        requiresUpdate = true;
-        instances.remove(new Instance(x, z, modelWidth, modelDepth));
+        int handle = instances.Find(x, z);
+        if(handle >= 0) RemoveInstance(handle);
     }
 
-    public void UpdateInstanceData(){
-        int[] instanceData = new int[instances.size()];
-
-        int renderIndex = 0;
-        for(Instance instance : instances){
-            if(instance.cullVolume.isCulled) continue;
-            
-            instance.PackInstanceData();
-            instanceData[renderIndex] = instance.instanceData;
-            renderIndex++;
-        }
-        activeInstanceCount = renderIndex;
-        
-        glBindVertexArray(VAO);
-        glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
-        glBufferData(GL_ARRAY_BUFFER, instanceData, GL_STATIC_DRAW);
+    public void RemoveInstance(int handle){
+        //changes still queued for the instance's slot must not be applied to the next instance given the slot
+        ApplyVisibilityChanges();
+        int index = instances.IndexOf(handle);
+        drawList.Hide(index);
+        shadowList.Hide(index);
+        CullingQuadTree.RemoveVolume(instances.cullVolumes[index]);
+        instances.Remove(handle);
     }
 
-    public void Draw() {
-        if(instances.isEmpty()) return;
-        
-        if(requiresUpdate || CullingQuadTree.instance.treeUpdated) UpdateInstanceData();
-        requiresUpdate = false;
+    public int InstanceCount(){
+        return instances.count;
+    }
 
-        glBindVertexArray(VAO);
-        glDrawElementsInstanced(GL_TRIANGLES, indexCount, GL_UNSIGNED_INT, 0, activeInstanceCount);
+    /**
+     * Deletes the renderer's GPU buffers. The renderer must have no instances left and cannot be used afterwards.
+     */
+    public void Free(){
+        if(instances.count > 0) throw new Error("cannot free a voxel instance renderer that still has instances");
+        glDeleteVertexArrays(VAO);
+        glDeleteVertexArrays(shadowVAO);
+        glDeleteBuffers(VBO);
+        glDeleteBuffers(EBO);
+        drawList.buffer.Free();
+        shadowList.buffer.Free();
     }
 
-    public void DrawShadowPass() {
-        if(instances.isEmpty()) return;
-        
-        if(requiresUpdate || CullingQuadTree.instance.treeUpdated) UpdateInstanceData();
-        requiresUpdate = false;
-        
-        glBindVertexArray(VAO);
-        glDrawElementsInstanced(GL_TRIANGLES, shadowIndexCount, GL_UNSIGNED_INT, 0, activeInstanceCount);
+    /**
+     * Applies the cull tree's visibility changes and writes the changed part of the instance buffers, once a frame.
+     */
+    public void UpdateInstanceData(){
+        ApplyVisibilityChanges();
+        drawList.buffer.Upload(drawList.data, drawList.count);
+        shadowList.buffer.Upload(shadowList.data, shadowList.count);
+    }
+
+    private void ApplyVisibilityChanges(){
+        ApplyVisibilityChanges(visibilityChanges, drawList);
+        ApplyVisibilityChanges(shadowVisibilityChanges, shadowList);
     }
 
-    private class Instance {
-        public int x, z;
-        public CullingQuadTree.CullVolume cullVolume;
+    private void ApplyVisibilityChanges(CullingQuadTree.VisibilityChanges changes, DrawList list){
+        for(int i = 0; i < changes.count; i++){
+            int change = changes.changes[i];
+            int index = instances.IndexOfSlot(change >= 0 ? change : ~change);
+            if(change >= 0) list.Show(index);
+            else list.Hide(index);
+        }
+        changes.Clear();
+    }
 
-        public int instanceData;
+    /**
+     * The instances drawn by one pass, packed at the front of its instance buffer.
+     */
+    private class DrawList {
+        /**
+         * Packed data of the drawn instances, mirrored in buffer, and the slot of the instance drawn at each position.
+         */
+        IntBuffer data;
+        int[] slots;
+        int count;
+        InstanceBuffer buffer;
 
-        public Instance(int x, int z, int width, int depth){
-            this.x = x; this.z = z;
-            this.cullVolume = CullingQuadTree.AddVolume(x, z, width, depth);
+        /**
+         * Whether the list is the shadow pass's, which sets the instances' shadow draw positions.
+         */
+        boolean shadow;
+
+        DrawList(InstanceBuffer buffer, boolean shadow){
+            this.buffer = buffer;
+            this.shadow = shadow;
+            slots = new int[16];
+            data = BufferUtils.createIntBuffer(slots.length);
         }
-        
-        public void PackInstanceData(){
-            instanceData = (x & 0x1FF) << 23 | (z & 0x1FF) << 14;
+
+        /**
+         * Adds the instance to the end of the drawn instances, if it is not drawn.
+         * @param index
+         *      - the instance's dense index.
+         */
+        void Show(int index){
+            int[] positions = Positions();
+            if(positions[index] >= 0) return;
+            if(count == slots.length) Grow();
+            int position = count++;
+            positions[index] = position;
+            data.put(position, PackInstanceData(instances.x[index], instances.z[index]));
+            slots[position] = InstanceStore.SlotOf(instances.handles[index]);
+            buffer.MarkDirty(position);
+        }
+
+        /**
+         * Removes the instance from the drawn instances, if it is drawn, moving the last drawn instance into its position.
+         * @param index
+         *      - the instance's dense index.
+         */
+        void Hide(int index){
+            int[] positions = Positions();
+            int position = positions[index];
+            if(position < 0) return;
+            int last = --count;
+            if(position != last){
+                slots[position] = slots[last];
+                data.put(position, data.get(last));
+                positions[instances.IndexOfSlot(slots[position])] = position;
+                buffer.MarkDirty(position);
+            }
+            positions[index] = -1;
+        }
+
+        /**
+         * Doubles the room for drawn instances.
+         */
+        private void Grow(){
+            int capacity = slots.length * 2;
+            IntBuffer grown = BufferUtils.createIntBuffer(capacity);
+            grown.put(0, data, 0, count);
+            data = grown;
+            slots = Arrays.copyOf(slots, capacity);
         }
 
-        public int hashCode(){
-            return instanceData;
+        private int[] Positions(){
+            return shadow ? instances.shadowDrawPositions : instances.drawPositions;
         }
     }
+
+    public void Draw() {
+        if(instances.count == 0) return;
+        UpdateInstanceData();
+
+        int lod = SelectLod();
+        glBindVertexArray(VAO);
+        glDrawElementsInstancedBaseVertexBaseInstance(GL_TRIANGLES, indexCounts[lod], indexType, indexOffsets[lod], drawList.buffer.count, baseVertices[lod], drawList.buffer.BaseInstance());
+    }
+
+    public void DrawShadowPass() {
+        if(instances.count == 0) return;
+        UpdateInstanceData();
+
+        int lod = SelectLod();
+        glBindVertexArray(shadowVAO);
+        glDrawElementsInstancedBaseVertexBaseInstance(GL_TRIANGLES, shadowIndexCounts[lod], indexType, indexOffsets[lod], shadowList.buffer.count, baseVertices[lod], shadowList.buffer.BaseInstance());
+    }
+
+    /**
+     * Picks the level of detail from the on-screen size of a voxel (1/16th of a world unit). The camera is orthographic,
+     * so every instance is drawn at the same size and one level is used for all of them.
+     */
+    private int SelectLod(){
+        float voxelPixels = Camera.instance.PixelsPerUnit() / 16.0f;
+        int lod = 0;
+        while(lod < indexCounts.length - 1 && lod < LOD_VOXEL_PIXELS.length && voxelPixels < LOD_VOXEL_PIXELS[lod]) lod++;
+        return lod;
+    }
+
+    private static int PackInstanceData(int x, int z){
+        return (x & 0x1FF) << 23 | (z & 0x1FF) << 14;
+    }
 }
@@ -1,54 +1,205 @@
 package james;
 
-import java.io.File;
-import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Class that loads and indexes all the .voxel files at initialization. The active color palette MUST be
- * initialized before the constructor is called.
+ * Class that indexes the .voxel files at initialization and loads each mesh the first time it is requested. The active
+ * color palette MUST be initialized before any mesh is loaded.
+ * 
+ * Meshes requested together with LoadMeshes() are read and decoded on a worker pool; only the color palette merge and
+ * upload run on the calling (GL) thread.
+ *
+ * BuildPalette() fills the palette from the color histograms written next to the .voxel files at package time, so content
+ * with more colors than the palette holds is quantized as a whole rather than running out of entries partway through loading.
  */
 public class VoxelLoader {
 
+    private static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+
     /**
      * The VoxelMeshData objects that are loaded in memory, indexed by their name (without the file extension).
      * Colors in the mesh objects are indexed by their color palette indicies, NOT in the form RGBA8888.
      */
     public static HashMap<String, VoxelData> meshObjects;
 
+    /**
+     * The path of every known .voxel file relative to \\resources, indexed by mesh name.
+     */
+    private static HashMap<String, String> meshPaths;
+
     public VoxelLoader(){
-        meshObjects = LoadMeshObjects();
+        meshObjects = new HashMap<>();
+        meshPaths = new HashMap<>();
+        for(String path : AssetPack.List("models", ".voxel")){
+            meshPaths.put(path.substring(path.lastIndexOf("\\") + 1, path.length() - ".voxel".length()), path);
+        }
     }
 
-    private HashMap<String, VoxelData> LoadMeshObjects(){
-        String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + "models";
-        File directory = new File(filePath);
-        
-        File[] files = directory.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-                return name.endsWith(".voxel");
-            }
-        });
-        if(files == null) return null;
-        
-        HashMap<String, VoxelData> result = new HashMap<>();
-        for(int i = 0; i < files.length; i++){
-            String meshPath = files[i].getAbsolutePath();
-            meshPath = meshPath.substring(meshPath.lastIndexOf("resources\\") + 10, meshPath.length());
-            VoxelData mesh = VoxelPackager.LoadVoxelMesh(meshPath);
-
-            //set the mesh's colors to be that of the active color palette.
-            for(int j = 0; j < mesh.colors.length; j++){
-                mesh.colors[j] = ColorPalette.GetColorPaletteIndex(mesh.colors[j]);
+    /**
+     * @return whether there is a .voxel file for the mesh, loaded or not.
+     */
+    public static boolean HasMesh(String name){
+        return meshPaths.containsKey(name);
+    }
+
+    /**
+     * @return the names of every mesh that has a .voxel file, loaded or not.
+     */
+    public static String[] MeshNames(){
+        return meshPaths.keySet().stream().sorted().toArray(String[]::new);
+    }
+
+    /**
+     * Gets a mesh, loading it on the calling thread if it is not loaded yet.
+     * @param name
+     *      - the mesh's name.
+     * @return
+     *      - the loaded mesh, with its colors as palette indices.
+     */
+    public static VoxelData GetMesh(String name){
+        VoxelData mesh = meshObjects.get(name);
+        if(mesh != null) return mesh;
+        LoadMeshes(new String[]{ name });
+        return meshObjects.get(name);
+    }
+
+    /**
+     * Releases the loaded copy of a mesh. It is loaded again the next time it is requested.
+     */
+    public static void UnloadMesh(String name){
+        meshObjects.remove(name);
+    }
+
+    /**
+     * Loads every mesh in the list that is not loaded yet, decoding them on the worker pool.
+     * @param names
+     *      - the meshes' names.
+     */
+    public static void LoadMeshes(String[] names){
+        ArrayList<String> loadNames = new ArrayList<>();
+        ArrayList<String> paths = new ArrayList<>();
+        for(String name : names){
+            if(meshObjects.containsKey(name) || loadNames.contains(name)) continue;
+            String path = meshPaths.get(name);
+            if(path == null) throw new Error("there is no voxel file for mesh " + name);
+            loadNames.add(name);
+            paths.add(path);
+        }
+        if(paths.isEmpty()) return;
+        boolean packed = AssetPack.IsPacked();
+
+        //decode every file on the worker pool
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(LOADER_THREADS, paths.size())));
+        ArrayList<Future<VoxelData>> loads = new ArrayList<>(paths.size());
+        for(String relativePath : paths) loads.add(pool.submit(() -> DecodeMesh(relativePath, packed)));
+        pool.shutdown();
+
+        //merge the results in request order, so palette indices do not depend on which load finishes first
+        for(int i = 0; i < paths.size(); i++){
+            VoxelData mesh;
+            try {
+                mesh = loads.get(i).get();
+            } catch (InterruptedException | ExecutionException e) {
+                pool.shutdownNow();
+                throw new Error("could not load voxel file " + paths.get(i), e);
             }
 
-            result.put(mesh.name, mesh);
+            SetPaletteColors(mesh);
+            meshObjects.put(loadNames.get(i), mesh);
         }
 
         //update the color palette buffer
         ColorPalette.UpdateColorUBO();
+    }
 
-        return result;
+    /**
+     * Builds the color palette from the color histogram of every .voxel file, quantizing the colors if there are more than
+     * the palette holds, and prints the largest color error. Only files packaged before histograms were written are
+     * decoded, once on the worker pool and then released. Must be called on the GL thread, before any mesh is loaded.
+     */
+    public static void BuildPalette(){
+        String[] paths = meshPaths.values().stream().sorted().toArray(String[]::new);
+        if(paths.length == 0) return;
+        boolean packed = AssetPack.IsPacked();
+
+        PaletteBuilder builder = new PaletteBuilder();
+        HashSet<String> histograms = new HashSet<>(Arrays.asList(AssetPack.List("models", VoxelPackager.COLOR_HISTOGRAM_EXTENSION)));
+        ArrayList<String> missing = new ArrayList<>();
+        for(String path : paths){
+            String histogramPath = VoxelPackager.ColorHistogramPath(path);
+            if(histograms.contains(histogramPath)) VoxelPackager.ReadColorHistogram(AssetPack.Read(histogramPath), histogramPath, builder);
+            else missing.add(path);
+        }
+
+        if(!missing.isEmpty()){
+            System.out.println(String.valueOf(missing.size()) + " .voxel files have no color histogram and are decoded to build the palette, build the models to write them");
+            ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(LOADER_THREADS, missing.size())));
+            ArrayList<Future<VoxelData>> loads = new ArrayList<>(missing.size());
+            for(String relativePath : missing) loads.add(pool.submit(() -> DecodeMesh(relativePath, packed)));
+            pool.shutdown();
+
+            for(int i = 0; i < missing.size(); i++){
+                VoxelData mesh;
+                try {
+                    mesh = loads.get(i).get();
+                } catch (InterruptedException | ExecutionException e) {
+                    pool.shutdownNow();
+                    throw new Error("could not load voxel file " + missing.get(i), e);
+                }
+                builder.AddColors(mesh.colors);
+                for(VoxelData lod : mesh.lods) builder.AddColors(lod.colors);
+            }
+        }
+
+        builder.Build(ColorPalette.PALETTE_SIZE - 1);
+        ColorPalette.SetPalette(builder);
+        ColorPalette.UpdateColorUBO();
+        System.out.println("color palette: " + String.valueOf(builder.ColorCount()) + " colors in " + String.valueOf(builder.palette.length) + " entries, max color error " + String.format("%.4f", builder.maxError));
+    }
+
+    /**
+     * Takes in a mesh that was decoded again after its file changed, and swaps it into the scene. Must be called on the
+     * GL thread.
+     * @param path
+     *      - the .voxel file's path, relative to \\resources.
+     * @param mesh
+     *      - the decoded mesh, with its colors in the rgba_8888 format.
+     */
+    public static void ReloadMesh(String path, VoxelData mesh){
+        String name = path.substring(path.lastIndexOf("\\") + 1, path.length() - ".voxel".length());
+        meshPaths.put(name, path);
+        meshObjects.remove(name);
+
+        SetPaletteColors(mesh);
+        ColorPalette.UpdateColorUBO();
+        SceneRenderer.ReloadMesh(name, mesh);
+    }
+
+    /**
+     * Decodes a .voxel file. Packed meshes are always in the binary layout.
+     */
+    private static VoxelData DecodeMesh(String path, boolean packed){
+        return packed ? VoxelPackager.ReadVoxelMesh(AssetPack.Read(path), path) : VoxelPackager.LoadVoxelMesh(path);
+    }
+
+    /**
+     * Sets the mesh's colors to be that of the active color palette.
+     */
+    private static void SetPaletteColors(VoxelData mesh){
+        for(int j = 0; j < mesh.colors.length; j++){
+            mesh.colors[j] = ColorPalette.GetColorPaletteIndex(mesh.colors[j]);
+        }
+        for(VoxelData lod : mesh.lods){
+            for(int j = 0; j < lod.colors.length; j++){
+                lod.colors[j] = ColorPalette.GetColorPaletteIndex(lod.colors[j]);
+            }
+        }
     }
 }
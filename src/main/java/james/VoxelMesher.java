@@ -0,0 +1,500 @@
+package james;
+
+import static james.VoxelData.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Greedy mesher working on voxel bitmasks. Occupancy is stored as columns of 64-bit masks along the z-axis, so exposed faces are
+ * found by shifting and masking whole columns, empty space is skipped with bit scans, and ambient occlusion is read from the
+ * neighbouring columns' bits. Quads are grown over the bits of faces that have not been merged yet.
+ *
+ * Produces the same VoxelData as VoxelPackager.BuildVoxelMeshFaces(), face for face, without allocating per voxel or per face.
+ */
+public class VoxelMesher {
+    private static final int QUAD_SIZE = 7;
+
+    /**
+     * Minimum number of planes in a slice band when meshing in parallel.
+     */
+    private static final int MIN_BAND_PLANES = 4;
+
+    private int xLen, yLen, zLen;
+    private int words;
+    private int[] colors;
+
+    //occupancy, as z-columns of words longs each
+    private long[] solid;
+    private int voxelCount;
+
+    //x, y, z, du, dv, color, ao for each quad, in face direction order
+    private int[] quads;
+    private int quadCount;
+    private int[] faceCounts;
+
+    private VoxelMesher(VoxelGrid grid){
+        xLen = grid.xLen;
+        yLen = grid.yLen;
+        zLen = grid.zLen;
+        words = (zLen + 63) >>> 6;
+        colors = grid.colors;
+        solid = new long[xLen * yLen * words];
+        quads = new int[QUAD_SIZE * 64];
+        faceCounts = new int[6];
+
+        for(int x = 0; x < xLen; x++){
+            for(int y = 0; y < yLen; y++){
+                int column = Column(x, y);
+                int index = grid.Index(x, y, 0);
+                for(int z = 0; z < zLen; z++){
+                    if(colors[index + z] != 0) solid[column + (z >>> 6)] |= 1L << z;
+                }
+                for(int w = 0; w < words; w++) voxelCount += Long.bitCount(solid[column + w]);
+            }
+        }
+    }
+
+    /**
+     * Builds the voxel mesh from the given voxel grid, greedy meshing each face direction on the calling thread.
+     * @param grid
+     *      - the voxel colors.
+     * @return the mesh data using integer (0,0,0)-indexed vertices and rgba_8888 colors.
+     */
+    public static VoxelData BuildVoxelMesh(VoxelGrid grid){
+        VoxelMesher mesher = new VoxelMesher(grid);
+        for(int k = 0; k < 6; k++){
+            Band band = mesher.new Band(k, 0, mesher.PlaneCount(k), new byte[grid.colors.length]);
+            band.compute();
+            mesher.AddQuads(k, new Band[]{ band });
+        }
+        return mesher.BuildData();
+    }
+
+    /**
+     * Builds the voxel mesh from the given voxel grid, with every face direction split into bands of slices that are meshed
+     * as fork-join tasks. Slices never merge faces with each other, so the result is the same as BuildVoxelMesh().
+     * @param grid
+     *      - the voxel colors.
+     * @return the mesh data using integer (0,0,0)-indexed vertices and rgba_8888 colors.
+     */
+    public static VoxelData BuildVoxelMeshParallel(VoxelGrid grid){
+        VoxelMesher mesher = new VoxelMesher(grid);
+        int parallelism = ForkJoinPool.getCommonPoolParallelism();
+
+        Band[][] bands = new Band[6][];
+        ArrayList<Band> tasks = new ArrayList<>();
+        for(int k = 0; k < 6; k++){
+            int planes = mesher.PlaneCount(k);
+            int bandCount = Math.max(1, Math.min(parallelism, planes / MIN_BAND_PLANES));
+            byte[] ao = new byte[grid.colors.length];
+            bands[k] = new Band[bandCount];
+            for(int b = 0; b < bandCount; b++){
+                bands[k][b] = mesher.new Band(k, planes * b / bandCount, planes * (b + 1) / bandCount, ao);
+                tasks.add(bands[k][b]);
+            }
+        }
+        ForkJoinTask.invokeAll(tasks);
+
+        for(int k = 0; k < 6; k++) mesher.AddQuads(k, bands[k]);
+        return mesher.BuildData();
+    }
+
+    /**
+     * @return the number of slices of direction k, the axis the direction's faces point along.
+     */
+    private int PlaneCount(int k){
+        if(k == TOP || k == BOTTOM) return yLen;
+        if(k == LEFT || k == RIGHT) return xLen;
+        return zLen;
+    }
+
+    /**
+     * Appends the quads of direction k's bands in x, y, z order of their origins, the order the sequential scan finds them in.
+     * Each band's quads are already in that order, so they are merged band by band.
+     */
+    private void AddQuads(int k, Band[] bands){
+        int[] next = new int[bands.length];
+        while(true){
+            int best = -1;
+            int bestIndex = Integer.MAX_VALUE;
+            for(int b = 0; b < bands.length; b++){
+                if(next[b] == bands[b].quadCount) continue;
+                int q = next[b] * QUAD_SIZE;
+                int index = (bands[b].quads[q] * yLen + bands[b].quads[q + 1]) * zLen + bands[b].quads[q + 2];
+                if(index < bestIndex){
+                    best = b;
+                    bestIndex = index;
+                }
+            }
+            if(best < 0) break;
+
+            if((quadCount + 1) * QUAD_SIZE > quads.length) quads = Arrays.copyOf(quads, quads.length * 2);
+            System.arraycopy(bands[best].quads, next[best] * QUAD_SIZE, quads, quadCount * QUAD_SIZE, QUAD_SIZE);
+            next[best]++;
+            quadCount++;
+            faceCounts[k]++;
+        }
+    }
+
+    /**
+     * A band of consecutive slices of one face direction, meshed independently of every other band.
+     * Keeps its own unmerged face bits and quads; ambient occlusion is shared with the direction's other bands,
+     * which only write their own faces' entries.
+     */
+    private class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private int k, start, end;
+
+        //the columns and the words of each column the band's faces lie in
+        private int xStart, xEnd, yStart, yEnd;
+        private int wStart, wEnd;
+
+        //the band's faces that are not part of a quad yet, laid out like solid over the band's columns and words only
+        private long[] remaining;
+        private byte[] ao;
+
+        private int[] quads;
+        private int quadCount;
+
+        public Band(int k, int start, int end, byte[] ao){
+            this.k = k;
+            this.start = start;
+            this.end = end;
+            this.ao = ao;
+            xStart = k == LEFT || k == RIGHT ? start : 0;
+            xEnd = k == LEFT || k == RIGHT ? end : xLen;
+            yStart = k == TOP || k == BOTTOM ? start : 0;
+            yEnd = k == TOP || k == BOTTOM ? end : yLen;
+            wStart = k == BACK || k == FRONT ? start >>> 6 : 0;
+            wEnd = k == BACK || k == FRONT ? (end + 63) >>> 6 : words;
+        }
+
+        @Override
+        protected void compute(){
+            remaining = new long[(xEnd - xStart) * (yEnd - yStart) * (wEnd - wStart)];
+            quads = new int[QUAD_SIZE * 64];
+            FindFaces();
+            CalculateAO();
+            MergeFaces();
+        }
+
+        /**
+         * Fills remaining with the band's faces: solid voxels whose neighbour in direction k is empty or outside the grid.
+         */
+        private void FindFaces(){
+            for(int x = xStart; x < xEnd; x++){
+                for(int y = yStart; y < yEnd; y++){
+                    int column = Column(x, y);
+                    int bandColumn = BandColumn(x, y);
+                    int neighborColumn = -1;
+                    if(k == LEFT && x > 0) neighborColumn = Column(x - 1, y);
+                    if(k == RIGHT && x < xLen - 1) neighborColumn = Column(x + 1, y);
+                    if(k == BOTTOM && y > 0) neighborColumn = Column(x, y - 1);
+                    if(k == TOP && y < yLen - 1) neighborColumn = Column(x, y + 1);
+
+                    for(int w = wStart; w < wEnd; w++){
+                        long neighbors;
+                        if(k == BACK) neighbors = solid[column + w] << 1 | (w > 0 ? solid[column + w - 1] >>> 63 : 0L);
+                        else if(k == FRONT) neighbors = solid[column + w] >>> 1 | (w < words - 1 ? solid[column + w + 1] << 63 : 0L);
+                        else neighbors = neighborColumn < 0 ? 0L : solid[neighborColumn + w];
+                        long faces = solid[column + w] & ~neighbors;
+                        if(k == BACK || k == FRONT) faces &= BitRange(w, start, end);
+                        remaining[bandColumn + w] = faces;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Calculates the ambient occlusion of every face in the band. Only the top, left and back faces are shaded,
+         * matching the Face based mesher.
+         */
+        private void CalculateAO(){
+            for(int x = xStart; x < xEnd; x++){
+                for(int y = yStart; y < yEnd; y++){
+                    int column = BandColumn(x, y);
+                    int index = (x * yLen + y) * zLen;
+                    for(int w = wStart; w < wEnd; w++){
+                        long bits = remaining[column + w];
+                        while(bits != 0){
+                            int z = (w << 6) + Long.numberOfTrailingZeros(bits);
+                            bits &= bits - 1;
+                            ao[index + z] = (byte)FaceAO(k, x, y, z);
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Greedy meshes the band's faces. Faces are visited in x, y, z order and each one that is not part of a quad yet
+         * grows the largest quad of equal faces (same color and ambient occlusion) it can, preferring the narrower quad on ties.
+         */
+        private void MergeFaces(){
+            //u and v axes of the face's plane
+            int ux = 0, uy = 0, vy = 0, vz = 0;
+            if(k == TOP || k == BOTTOM){ ux = 1; vz = 1; }
+            else if(k == LEFT || k == RIGHT){ uy = 1; vz = 1; }
+            else { ux = 1; vy = 1; }
+
+            for(int x = xStart; x < xEnd; x++){
+                for(int y = yStart; y < yEnd; y++){
+                    int column = BandColumn(x, y);
+                    for(int z = NextFace(column, 0); z >= 0; z = NextFace(column, z + 1)){
+                        int index = (x * yLen + y) * zLen + z;
+                        int color = colors[index];
+                        int faceAO = ao[index];
+
+                        int w = Run(x, y, z, ux, uy, 0, color, faceAO, Integer.MAX_VALUE);
+                        int h = Run(x, y, z, 0, vy, vz, color, faceAO, Integer.MAX_VALUE);
+                        int width = 1, height = 1;
+                        int sliceHeight = h;
+                        for(int u = 0; u < w; u++){
+                            if(u > 0) sliceHeight = Run(x + u * ux, y + u * uy, z, 0, vy, vz, color, faceAO, sliceHeight);
+                            if((u + 1) * sliceHeight > width * height){
+                                width = u + 1;
+                                height = sliceHeight;
+                            }
+                        }
+
+                        for(int u = 0; u < width; u++){
+                            int uColumn = BandColumn(x + u * ux, y + u * uy);
+                            if(vz == 1) ClearBits(uColumn, z, height);
+                            else for(int v = 0; v < height; v++) remaining[uColumn + v * (wEnd - wStart) + (z >>> 6)] &= ~(1L << z);
+                        }
+                        AddQuad(x, y, z, width, height, color, faceAO);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Counts the equal faces from (x, y, z) onwards along the axis (dx, dy, dz), up to max.
+         */
+        private int Run(int x, int y, int z, int dx, int dy, int dz, int color, int faceAO, int max){
+            int length;
+            if(dz == 1){
+                //along a column the run of unmerged faces is found with bit operations, only those need their colors compared
+                length = Math.min(max, OnesRun(BandColumn(x, y), z));
+                int index = (x * yLen + y) * zLen + z;
+                for(int n = 0; n < length; n++){
+                    if(colors[index + n] != color || ao[index + n] != faceAO) return n;
+                }
+                return length;
+            }
+
+            length = 0;
+            while(length < max){
+                int px = x + length * dx, py = y + length * dy;
+                if(px >= xLen || py >= yLen) break;
+                if((remaining[BandColumn(px, py) + (z >>> 6)] & 1L << z) == 0) break;
+                int index = (px * yLen + py) * zLen + z;
+                if(colors[index] != color || ao[index] != faceAO) break;
+                length++;
+            }
+            return length;
+        }
+
+        /**
+         * @return the number of consecutive set bits in the column's remaining faces, starting at z.
+         */
+        private int OnesRun(int column, int z){
+            int length = 0;
+            for(int w = z >>> 6; w < wEnd; w++){
+                int shift = z & 63;
+                int ones = Long.numberOfTrailingZeros(~(remaining[column + w] >>> shift));
+                length += Math.min(ones, 64 - shift);
+                if(ones < 64 - shift) break;
+                z = (w + 1) << 6;
+            }
+            return length;
+        }
+
+        /**
+         * @return the lowest z from the given one onwards with an unmerged face in the column, or -1 if there is none.
+         */
+        private int NextFace(int column, int z){
+            for(int w = Math.max(z >>> 6, wStart); w < wEnd; w++){
+                long bits = remaining[column + w];
+                if(w == z >>> 6) bits &= -1L << z;
+                if(bits != 0) return (w << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            return -1;
+        }
+
+        /**
+         * @return the start of the column in remaining, offset so that it is indexed by the word's index in the whole column.
+         */
+        private int BandColumn(int x, int y){
+            return ((x - xStart) * (yEnd - yStart) + y - yStart) * (wEnd - wStart) - wStart;
+        }
+
+        private void ClearBits(int column, int z, int length){
+            while(length > 0){
+                int shift = z & 63;
+                int count = Math.min(length, 64 - shift);
+                remaining[column + (z >>> 6)] &= ~(LowBits(count) << shift);
+                z += count;
+                length -= count;
+            }
+        }
+
+        private void AddQuad(int x, int y, int z, int du, int dv, int color, int faceAO){
+            if((quadCount + 1) * QUAD_SIZE > quads.length) quads = Arrays.copyOf(quads, quads.length * 2);
+            int i = quadCount * QUAD_SIZE;
+            quads[i + 0] = x;
+            quads[i + 1] = y;
+            quads[i + 2] = z;
+            quads[i + 3] = du;
+            quads[i + 4] = dv;
+            quads[i + 5] = color;
+            quads[i + 6] = faceAO;
+            quadCount++;
+        }
+    }
+
+    /**
+     * @return the face's four ambient occlusion values, 2 bits each with the first vertex in the lowest bits.
+     */
+    private int FaceAO(int k, int x, int y, int z){
+        //three rows of neighbours, bit v of row u being the neighbour at offset (u - 1, v - 1) in the face's plane
+        int row0, row1, row2;
+        int ao0 = 0, ao1 = 0, ao2 = 0, ao3 = 0;
+        if(k == TOP){
+            if(y == yLen - 1) return 0;
+            row0 = Row(x - 1, y + 1, z);
+            row1 = Row(x, y + 1, z);
+            row2 = Row(x + 1, y + 1, z);
+        }
+        else if(k == LEFT){
+            if(x == 0) return 0;
+            row0 = Row(x - 1, y - 1, z);
+            row1 = Row(x - 1, y, z);
+            row2 = Row(x - 1, y + 1, z);
+            if(y == 0) ao0 = ao3 = 2;
+        }
+        else if(k == BACK){
+            if(z == 0) return 0;
+            row0 = Bit(x - 1, y - 1, z - 1) | Bit(x - 1, y, z - 1) << 1 | Bit(x - 1, y + 1, z - 1) << 2;
+            row1 = Bit(x, y - 1, z - 1) | Bit(x, y, z - 1) << 1 | Bit(x, y + 1, z - 1) << 2;
+            row2 = Bit(x + 1, y - 1, z - 1) | Bit(x + 1, y, z - 1) << 1 | Bit(x + 1, y + 1, z - 1) << 2;
+            if(y == 0) ao0 = ao1 = 2;
+        }
+        else return 0;
+
+        ao0 = Math.max(ao0, CalculateAO(row0 & 1, row1 & 1, row0 >> 1 & 1));
+        ao1 = Math.max(ao1, CalculateAO(row2 & 1, row1 & 1, row2 >> 1 & 1));
+        ao2 = Math.max(ao2, CalculateAO(row2 >> 2 & 1, row1 >> 2 & 1, row2 >> 1 & 1));
+        ao3 = Math.max(ao3, CalculateAO(row0 >> 2 & 1, row0 >> 1 & 1, row1 >> 2 & 1));
+        return ao0 | ao1 << 2 | ao2 << 4 | ao3 << 6;
+    }
+
+    private static int CalculateAO(int corner, int s1, int s2){
+        if((s1 & s2) != 0) return 3;
+        return s1 + s2 + corner;
+    }
+
+    /**
+     * @return the occupancy of (x, y, z - 1), (x, y, z) and (x, y, z + 1) in bits 0 to 2, empty outside the grid.
+     */
+    private int Row(int x, int y, int z){
+        if(x < 0 || x >= xLen || y < 0 || y >= yLen) return 0;
+        int column = Column(x, y);
+        return Bit(column, z - 1) | Bit(column, z) << 1 | Bit(column, z + 1) << 2;
+    }
+
+    private int Bit(int x, int y, int z){
+        if(x < 0 || x >= xLen || y < 0 || y >= yLen) return 0;
+        return Bit(Column(x, y), z);
+    }
+
+    private int Bit(int column, int z){
+        if(z < 0 || z >= zLen) return 0;
+        return (int)(solid[column + (z >>> 6)] >>> z) & 1;
+    }
+
+    private int Column(int x, int y){
+        return (x * yLen + y) * words;
+    }
+
+    /**
+     * @return a mask of the bits of word w that lie in the z range [start, end).
+     */
+    private static long BitRange(int w, int start, int end){
+        int low = Math.max(0, Math.min(64, start - (w << 6)));
+        int high = Math.max(0, Math.min(64, end - (w << 6)));
+        return LowBits(high) & ~LowBits(low);
+    }
+
+    private static long LowBits(int count){
+        return count == 64 ? -1L : (1L << count) - 1;
+    }
+
+    /**
+     * Packages the quads into VoxelData: four vertices and two triangles per quad, grouped by face direction.
+     */
+    private VoxelData BuildData(){
+        VoxelData result = new VoxelData("", voxelCount, quadCount * 4, quadCount * 2);
+        for(int k = 1; k < 6; k++) result.faceOffsets[k] = result.faceOffsets[k - 1] + faceCounts[k - 1];
+        System.arraycopy(faceCounts, 0, result.faceCounts, 0, 6);
+
+        int i = 0;
+        for(int k = 0; k < 6; k++){
+            //offset of the face's plane, u and v axes, and whether the winding is mirrored
+            int ox = k == RIGHT ? 1 : 0, oy = k == TOP ? 1 : 0, oz = k == FRONT ? 1 : 0;
+            int ux = 0, uy = 0, vy = 0, vz = 0;
+            if(k == TOP || k == BOTTOM){ ux = 1; vz = 1; }
+            else if(k == LEFT || k == RIGHT){ uy = 1; vz = 1; }
+            else { ux = 1; vy = 1; }
+            boolean mirrored = k == BOTTOM || k == RIGHT || k == FRONT;
+
+            for(int end = i + faceCounts[k]; i < end; i++){
+                int q = i * QUAD_SIZE;
+                int x = quads[q] + ox, y = quads[q + 1] + oy, z = quads[q + 2] + oz;
+                int du = quads[q + 3], dv = quads[q + 4];
+                int faceAO = quads[q + 6];
+
+                int vertex = i * 4;
+                SetPosition(result.positions, vertex + 0, x, y, z);
+                SetPosition(result.positions, vertex + (mirrored ? 3 : 1), x + du * ux, y + du * uy, z);
+                SetPosition(result.positions, vertex + 2, x + du * ux, y + du * uy + dv * vy, z + dv * vz);
+                SetPosition(result.positions, vertex + (mirrored ? 1 : 3), x, y + dv * vy, z + dv * vz);
+                for(int m = 0; m < 4; m++){
+                    result.colors[vertex + m] = quads[q + 5];
+                    result.ao[vertex + m] = faceAO >> (m * 2) & 3;
+                }
+
+                //flip quad dependent on ambient occlusion to maintain consistent smoothing
+                int triIndex = i * 6;
+                if(result.ao[vertex] + result.ao[vertex + 2] > result.ao[vertex + 1] + result.ao[vertex + 3]){
+                    result.indices[triIndex + 0] = vertex + 1;
+                    result.indices[triIndex + 1] = vertex + 2;
+                    result.indices[triIndex + 2] = vertex + 3;
+                    result.indices[triIndex + 3] = vertex + 3;
+                    result.indices[triIndex + 4] = vertex + 0;
+                    result.indices[triIndex + 5] = vertex + 1;
+                }
+                else {
+                    result.indices[triIndex + 0] = vertex + 0;
+                    result.indices[triIndex + 1] = vertex + 1;
+                    result.indices[triIndex + 2] = vertex + 2;
+                    result.indices[triIndex + 3] = vertex + 2;
+                    result.indices[triIndex + 4] = vertex + 3;
+                    result.indices[triIndex + 5] = vertex + 0;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void SetPosition(int[] positions, int vertex, int x, int y, int z){
+        positions[vertex * 3 + 0] = x;
+        positions[vertex * 3 + 1] = y;
+        positions[vertex * 3 + 2] = z;
+    }
+}
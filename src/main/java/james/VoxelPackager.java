@@ -4,38 +4,356 @@ import static james.VoxelData.*;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
-import org.joml.Vector3i;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 /**
  * Class for packaging model files into .voxel custom format as while as saving/loading .voxel files.
  */
 public class VoxelPackager {
 
+    /**
+     * First int of a binary .voxel file, the bytes "VOXL" read as a little-endian int.
+     * Files that do not start with it are read as the legacy text format.
+     */
+    public static final int VOXEL_FILE_MAGIC = 0x4C584F56;
+
+    /**
+     * Version of the binary .voxel layout written by SaveVoxelMeshData().
+     */
+    public static final int VOXEL_FILE_VERSION = 4;
+
+    /**
+     * Whether SaveVoxelMeshData() deflates the mesh arrays of the files it writes.
+     */
+    public static final boolean COMPRESS_VOXEL_FILES = true;
+
+    /**
+     * Uncompressed size of each independently deflated block of a compressed .voxel file, in bytes. A multiple of 4, so
+     * every block holds whole ints.
+     */
+    public static final int COMPRESSION_BLOCK_SIZE = 64 * 1024;
+
+    private static final int VOXEL_FLAG_COMPRESSED = 1;
+
+    /**
+     * Number of timed decodes per file in ReportCompression().
+     */
+    private static final int DECODE_ITERATIONS = 20;
+
+    /**
+     * Number of lower detail meshes built for each packaged model, each downsampled by twice the factor of the one before it.
+     */
+    public static final int LOD_COUNT = 2;
+
+    /**
+     * Revision of the packaging output, hashed with every model source by ModelBuilder. Must be bumped whenever a change
+     * to meshing, levels of detail or MeshOptimizer changes the .voxel files packaged from the same source, so every model
+     * is packaged again.
+     */
+    public static final int PACKAGER_REVISION = 1;
+
+    /**
+     * Whether BuildVoxelMesh() meshes slice bands of each face direction as fork-join tasks, or everything on the calling thread.
+     */
+    public static final boolean PARALLEL_MESHING = true;
+
+    /**
+     * Extension of the color histogram SaveVoxelMeshData() writes next to each .voxel file, see SaveColorHistogram().
+     */
+    public static final String COLOR_HISTOGRAM_EXTENSION = ".colors";
+
     //comment this out when not packaging to .voxel format
     
     private static final String PATH = "cottage_b.ply";
     public static void main(String[] args){
         long startTime = System.nanoTime();
-        PackagePly("models\\" + PATH);
+        if(args.length > 0 && args[0].equals("convert")){
+            int converted = ConvertVoxelMeshes("models");
+            System.out.println("Successfully converted " + String.valueOf(converted) + " .voxel files to binary, elapsed time " + String.valueOf(((double)(System.nanoTime() - startTime)) / 1000000000.0) + " seconds.");
+            return;
+        }
+        if(args.length > 0 && args[0].equals("build")){
+            int failures = ModelBuilder.BuildModels("models");
+            if(failures > 0) throw new Error(String.valueOf(failures) + " models could not be packaged");
+            System.out.println("Successfully built models, elapsed time " + String.valueOf(((double)(System.nanoTime() - startTime)) / 1000000000.0) + " seconds.");
+            return;
+        }
+        if(args.length > 0 && args[0].equals("pack")){
+            int assetCount = AssetPack.BuildPack();
+            String[] corrupted = AssetPack.VerifyPack();
+            if(corrupted.length > 0) throw new Error("asset pack entries do not match their hashes: " + String.join(", ", corrupted));
+            System.out.println("Successfully packed " + String.valueOf(assetCount) + " assets to " + AssetPack.PACK_PATH + ", elapsed time " + String.valueOf(((double)(System.nanoTime() - startTime)) / 1000000000.0) + " seconds.");
+            return;
+        }
+        if(args.length > 0 && args[0].equals("compression")){
+            ReportCompression("models");
+            System.out.println("Elapsed time " + String.valueOf(((double)(System.nanoTime() - startTime)) / 1000000000.0) + " seconds.");
+            return;
+        }
+        if(PATH.endsWith(".vox")) PackageVox("models\\" + PATH);
+        else PackagePly("models\\" + PATH);
         //PackagePly("models\\" + "tree_cedar.ply");
         System.out.println("Successfully packaged " + PATH + " to .voxel, elapsed time " + String.valueOf(((double)(System.nanoTime() - startTime)) / 1000000000.0) + " seconds.");
     }
 
     /**
-     * Loads a .voxel file to memory.
+     * Loads a .voxel file to memory. Binary files are memory mapped and copied out in bulk, files in the 
+     * legacy text format are parsed line by line.
      * @param path
      *      - the path of the file to be loaded, relative to \\resources, and including the .voxel file extension.
      * @return
      *      - the populated VoxelMeshData object.
      */
     public static VoxelData LoadVoxelMesh(String path) {
-        
         String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
+        //read rather than mapped, as a live mapping keeps the packager from saving the file again on Windows
+        ByteBuffer buffer;
+        try {
+            buffer = ByteBuffer.wrap(Files.readAllBytes(Paths.get(filePath))).order(ByteOrder.LITTLE_ENDIAN);
+        } catch (IOException e) {
+            throw new Error("could not read voxel file " + filePath, e);
+        }
+
+        //only files without the binary magic are in the text format, a binary file that fails to decode is corrupt
+        if(buffer.remaining() < 8 || buffer.getInt(0) != VOXEL_FILE_MAGIC) return LoadVoxelMeshText(filePath);
+        try {
+            return ReadVoxelMesh(buffer, filePath);
+        } catch (RuntimeException e) {
+            throw new Error("invalid voxel file " + filePath, e);
+        }
+    }
+
+    /**
+     * Reads a mesh in the binary .voxel layout. All fields are little-endian ints:
+     * <pre>
+     * magic, version, name byte length, name (UTF-8, zero padded to 4 bytes), flags, lod count, header[lod count + 1], payload
+     * </pre>
+     * where the headers of the mesh and then of its levels of detail are
+     * <pre>
+     * voxel count, vertex count, index count, face offsets[6], face counts[6]
+     * </pre>
+     * and the payload holds the arrays of the mesh and then of its levels of detail, in header order:
+     * <pre>
+     * positions[vertex count * 3], indices[index count], colors[vertex count], ambient occlusion[vertex count]
+     * </pre>
+     * When the compressed flag is set, the payload is instead split in blocks of a fixed uncompressed size that are each
+     * deflated on their own, stored as
+     * <pre>
+     * payload byte size, block size, block count, compressed block sizes[block count], blocks (bytes, unpadded)
+     * </pre>
+     * The blocks are inflated in parallel, each straight into the arrays it covers, so the uncompressed payload is never
+     * held in memory as a whole.
+     *
+     * Version 3 files have no flags and store each header directly before its arrays, with the lod count after the first
+     * mesh. Version 2 files end after the first mesh and have no levels of detail.
+     * @param buffer
+     *      - the file's contents, positioned at the magic number.
+     * @param source
+     *      - the file's name, used for error reporting.
+     * @return
+     *      - the populated VoxelMeshData object.
+     */
+    public static VoxelData ReadVoxelMesh(ByteBuffer buffer, String source) {
+        buffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.getInt() != VOXEL_FILE_MAGIC) throw new Error("invalid voxel file " + source);
+        int version = buffer.getInt();
+        if(version < 2 || version > VOXEL_FILE_VERSION) throw new Error("unsupported voxel file version " + String.valueOf(version) + " in " + source);
+
+        byte[] nameBytes = new byte[buffer.getInt()];
+        buffer.get(nameBytes);
+        buffer.position((buffer.position() + 3) & ~3);
+        String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+        IntBuffer ints = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+        if(version < 4){
+            VoxelData result = ReadVoxelMeshHeader(ints, name, source);
+            ReadVoxelMeshArrays(ints, result, source);
+            if(version == 2) return result;
+
+            if(!ints.hasRemaining()) throw new Error("invalid voxel file " + source);
+            result.lods = new VoxelData[ints.get()];
+            for(int i = 0; i < result.lods.length; i++){
+                result.lods[i] = ReadVoxelMeshHeader(ints, name, source);
+                ReadVoxelMeshArrays(ints, result.lods[i], source);
+            }
+            return result;
+        }
+
+        if(ints.remaining() < 2) throw new Error("invalid voxel file " + source);
+        boolean compressed = (ints.get() & VOXEL_FLAG_COMPRESSED) != 0;
+        int lodCount = ints.get();
+        if(lodCount < 0) throw new Error("invalid voxel file " + source);
+        VoxelData result = ReadVoxelMeshHeader(ints, name, source);
+        result.lods = new VoxelData[lodCount];
+        for(int i = 0; i < lodCount; i++) result.lods[i] = ReadVoxelMeshHeader(ints, name, source);
+
+        //the payload's arrays, in file order
+        int[][] arrays = new int[4 * (lodCount + 1)][];
+        long payloadLength = 0;
+        for(int i = 0; i <= lodCount; i++){
+            VoxelData mesh = i == 0 ? result : result.lods[i - 1];
+            arrays[i * 4 + 0] = mesh.positions;
+            arrays[i * 4 + 1] = mesh.indices;
+            arrays[i * 4 + 2] = mesh.colors;
+            arrays[i * 4 + 3] = mesh.ao;
+            payloadLength += mesh.positions.length + mesh.indices.length + mesh.colors.length + mesh.ao.length;
+        }
+
+        if(!compressed){
+            if(ints.remaining() < payloadLength) throw new Error("invalid voxel file " + source);
+            CopyPayload(ints, 0, arrays);
+            return result;
+        }
+
+        if(ints.remaining() < 3) throw new Error("invalid voxel file " + source);
+        int payloadSize = ints.get();
+        int blockSize = ints.get();
+        int blockCount = ints.get();
+        if(payloadSize != payloadLength * 4 || blockSize <= 0 || blockSize % 4 != 0 || blockCount != (int)(((long)payloadSize + blockSize - 1) / blockSize) || ints.remaining() < blockCount) throw new Error("invalid voxel file " + source);
+
+        int[] blockOffsets = new int[blockCount + 1];
+        for(int i = 0; i < blockCount; i++){
+            int compressedSize = ints.get();
+            if(compressedSize < 0 || blockOffsets[i] + (long)compressedSize > buffer.remaining()) throw new Error("invalid voxel file " + source);
+            blockOffsets[i + 1] = blockOffsets[i] + compressedSize;
+        }
+        int blocksStart = buffer.position() + ints.position() * 4;
+        if(blocksStart + (long)blockOffsets[blockCount] > buffer.limit()) throw new Error("invalid voxel file " + source);
+        ByteBuffer blocks = buffer.slice(blocksStart, blockOffsets[blockCount]);
+
+        IntStream.range(0, blockCount).parallel().forEach(i -> {
+            int length = Math.min(blockSize, payloadSize - i * blockSize);
+            ByteBuffer block = InflateBlock(blocks.slice(blockOffsets[i], blockOffsets[i + 1] - blockOffsets[i]), length, source);
+            CopyPayload(block.asIntBuffer(), i * (blockSize / 4), arrays);
+        });
+        return result;
+    }
+
+    /**
+     * Reads a mesh's header and allocates its arrays.
+     */
+    private static VoxelData ReadVoxelMeshHeader(IntBuffer ints, String name, String source){
+        if(ints.remaining() < 15) throw new Error("invalid voxel file " + source);
+        int voxelCount = ints.get();
+        int vertexCount = ints.get();
+        int indexCount = ints.get();
+        if(vertexCount < 0 || indexCount < 0 || indexCount % 3 != 0 || vertexCount > Integer.MAX_VALUE / 3) throw new Error("invalid voxel file " + source);
+
+        VoxelData result = new VoxelData(name, voxelCount, vertexCount, indexCount / 3);
+        ints.get(result.faceOffsets);
+        ints.get(result.faceCounts);
+        return result;
+    }
+
+    private static void ReadVoxelMeshArrays(IntBuffer ints, VoxelData mesh, String source){
+        if(ints.remaining() < mesh.vertexCount * 5L + mesh.indices.length) throw new Error("invalid voxel file " + source);
+        ints.get(mesh.positions);
+        ints.get(mesh.indices);
+        ints.get(mesh.colors);
+        ints.get(mesh.ao);
+    }
+
+    /**
+     * Copies a run of payload ints into the arrays it covers.
+     * @param source
+     *      - the ints, which are all consumed.
+     * @param start
+     *      - the position of source's first int in the payload.
+     * @param arrays
+     *      - the payload's arrays, in file order.
+     */
+    private static void CopyPayload(IntBuffer source, long start, int[][] arrays){
+        long arrayStart = 0;
+        for(int[] array : arrays){
+            if(!source.hasRemaining()) return;
+            long arrayEnd = arrayStart + array.length;
+            if(start < arrayEnd){
+                int count = (int)Math.min(arrayEnd - start, source.remaining());
+                source.get(array, (int)(start - arrayStart), count);
+                start += count;
+            }
+            arrayStart = arrayEnd;
+        }
+    }
+
+    /**
+     * @return the block inflated to a new little-endian buffer of the given length.
+     */
+    private static ByteBuffer InflateBlock(ByteBuffer block, int length, String source){
+        ByteBuffer result = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(block);
+            while(result.hasRemaining() && !inflater.finished()){
+                if(inflater.inflate(result) == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+            }
+        } catch (DataFormatException e) {
+            throw new Error("invalid compressed block in voxel file " + source, e);
+        } finally {
+            inflater.end();
+        }
+        if(result.hasRemaining()) throw new Error("truncated compressed block in voxel file " + source);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Converts every .voxel file in the directory to the current binary layout. Files already in it are skipped.
+     * @param directory
+     *      - the directory, relative to \\resources.
+     * @return
+     *      - the number of files that were converted.
+     */
+    public static int ConvertVoxelMeshes(String directory){
+        File[] files = new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + directory).listFiles((dir, name) -> name.endsWith(".voxel"));
+        if(files == null) return 0;
+
+        int converted = 0;
+        for(File file : files){
+            String path = directory + "\\" + file.getName();
+            if(IsBinaryVoxelFile(file)) continue;
+            SaveVoxelMeshData(path, LoadVoxelMesh(path));
+            converted++;
+        }
+        return converted;
+    }
+
+    private static boolean IsBinaryVoxelFile(File file){
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            channel.read(magic, 0);
+            return magic.position() == 4 && magic.getInt(0) == VOXEL_FILE_MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Loads a .voxel file in the legacy text format.
+     * @param filePath
+     *      - the absolute path of the file.
+     * @return
+     *      - the populated VoxelMeshData object.
+     */
+    private static VoxelData LoadVoxelMeshText(String filePath) {
         BufferedReader reader = null;
         try {
             reader = new BufferedReader(new FileReader(filePath));
@@ -43,7 +361,7 @@ public class VoxelPackager {
             e.printStackTrace();
             System.out.println("could not read voxel file " + filePath);
         }
-        Error invalidVoxelFileError = new Error("invalid voxel file" + filePath);
+        Error invalidVoxelFileError = new Error("invalid voxel file " + filePath);
         
         // this is actually disgusting to look at but it's naturally pretty encapsulated, so I don't care.
         // out of sight out of mind
@@ -102,9 +420,9 @@ public class VoxelPackager {
         for(int i = 0; i < vertexCount; i++){
             currentLine = ReadNextLine(reader);
             if(currentLine == null) throw invalidVoxelFileError;
-            result.vertices[i][0] = Integer.parseInt(currentLine[0]);
-            result.vertices[i][1] = Integer.parseInt(currentLine[1]);
-            result.vertices[i][2] = Integer.parseInt(currentLine[2]);
+            result.positions[i * 3 + 0] = Integer.parseInt(currentLine[0]);
+            result.positions[i * 3 + 1] = Integer.parseInt(currentLine[1]);
+            result.positions[i * 3 + 2] = Integer.parseInt(currentLine[2]);
         }
         
         //indices
@@ -142,106 +460,127 @@ public class VoxelPackager {
         }
         for(int i = 0; i < vertexCount; i++){
             currentLine = ReadNextLine(reader);
-            result.ambientOcclusion[i] = Integer.parseInt(currentLine[0]);
+            result.ao[i] = Integer.parseInt(currentLine[0]);
         }
 
         return result;
     }
 
     /**
-     * Reads and packages .ply files in the point-cloud voxel format (point in MagicaVoxel).
+     * Reads and packages .ply files in the point-cloud voxel format (point in MagicaVoxel), either ascii or binary.
      * Saves the packaged file in the .voxel format with the same name as its origin.
      * @param path
      *      - the path of the file to be packaged relative to \\resources, and including the file extension.
+     * @return
+     *      - the path of the saved .voxel file, relative to \\resources.
      */
-    public static void PackagePly(String path) {
-        String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
-        BufferedReader reader = null;
-        try {
-            reader = new BufferedReader(new FileReader(filePath));
-        } catch (Exception e) {
-            e.printStackTrace();
-            System.out.println("could not read voxel file " + filePath);
-        }
+    public static String PackagePly(String path) {
+        VoxelData meshData = BuildVoxelMeshLods(PlyImporter.ImportPly(path));
 
-        String[] currentLine = ReadNextLine(reader);
-        while(!currentLine[0].equals("element") || !currentLine[1].equals("vertex")){
-            currentLine = ReadNextLine(reader);
-            if(currentLine == null) throw new Error("invalid voxel file " + filePath);
-        }
-        int voxelCount = Integer.valueOf(currentLine[2]);
-        while(!currentLine[0].equals("end_header")){
-            currentLine = ReadNextLine(reader);
-            if(currentLine == null) throw new Error("invalid voxel file " + filePath);
-        }
-        Vector3i[] voxels = new Vector3i[voxelCount];
-        Color[] voxelColors = new Color[voxelCount];
-        Vector3i minBd = new Vector3i();
-        Vector3i maxBd = new Vector3i();
-        for(int i = 0; i < voxelCount; i++) {
-            currentLine = ReadNextLine(reader);
-            voxels[i] = new Vector3i(Integer.parseInt(currentLine[0]), Integer.parseInt(currentLine[2]), Integer.parseInt(currentLine[1]));
-            voxelColors[i] = new Color(Integer.parseInt(currentLine[3]), Integer.parseInt(currentLine[4]), Integer.parseInt(currentLine[5]), 256);
+        String voxelPath = path.replace(".ply", ".voxel");
+        SaveVoxelMeshData(voxelPath, meshData);
+        return voxelPath;
+    }
 
-            if(voxels[i].x > maxBd.x) maxBd.x = voxels[i].x;
-            if(voxels[i].y > maxBd.y) maxBd.y = voxels[i].y;
-            if(voxels[i].z > maxBd.z) maxBd.z = voxels[i].z;
-            if(voxels[i].x < minBd.x) minBd.x = voxels[i].x;
-            if(voxels[i].y < minBd.y) minBd.y = voxels[i].y;
-            if(voxels[i].z < minBd.z) minBd.z = voxels[i].z;
-        }
-        Color[][][] voxelData = new Color[maxBd.x - minBd.x + 1][maxBd.y - minBd.y + 1][maxBd.z - minBd.z + 1];
-        for(int i = 0; i < voxelCount; i++){
-            voxelData[voxels[i].x - minBd.x][voxels[i].y - minBd.y][voxels[i].z - minBd.z] = voxelColors[i];
-        }
+    /**
+     * Reads and packages MagicaVoxel .vox files. Saves each model in the file in the .voxel format with the same name as its origin,
+     * followed by _i for the i'th model when the file holds more than one.
+     * @param path
+     *      - the path of the file to be packaged relative to \\resources, and including the file extension.
+     * @return
+     *      - the paths of the saved .voxel files, relative to \\resources.
+     */
+    public static String[] PackageVox(String path) {
+        VoxelGrid[] models = VoxImporter.ImportVox(path);
+        if(models.length == 0) throw new Error("no models in voxel file " + path);
 
-        try {
-            reader.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+        String basePath = path.substring(0, path.length() - ".vox".length());
+        String[] voxelPaths = new String[models.length];
+        for(int i = 0; i < models.length; i++){
+            voxelPaths[i] = models.length == 1 ? basePath + ".voxel" : basePath + "_" + String.valueOf(i) + ".voxel";
+            SaveVoxelMeshData(voxelPaths[i], BuildVoxelMeshLods(models[i]));
         }
+        return voxelPaths;
+    }
 
-        VoxelData meshData = BuildVoxelMesh(voxelData);
-
-        String voxelPath = path.replace(".ply", ".voxel");
-        SaveVoxelMeshData(voxelPath, meshData);
+    /**
+     * Meshes the grid along with LOD_COUNT lower detail versions of it. Each level's positions are scaled back up to the
+     * full detail mesh's units, so every level covers the same space, and its quads are put in draw order by MeshOptimizer.
+     * @param grid
+     *      - the full detail voxel grid.
+     * @return
+     *      - the full detail mesh, with its levels of detail in lods.
+     */
+    public static VoxelData BuildVoxelMeshLods(VoxelGrid grid){
+        VoxelData result = BuildVoxelMesh(grid);
+        MeshOptimizer.OptimizeDrawOrder(result);
+        result.lods = new VoxelData[LOD_COUNT];
+        for(int i = 0; i < LOD_COUNT; i++){
+            int factor = 2 << i;
+            VoxelData lod = BuildVoxelMesh(grid.Downsample(factor));
+            for(int j = 0; j < lod.positions.length; j++) lod.positions[j] *= factor;
+            MeshOptimizer.OptimizeDrawOrder(lod);
+            result.lods[i] = lod;
+        }
+        return result;
     }
 
-    
     /**
-     * Builds the voxel mesh from the given color data. Packages into Face array format, calculates ambient occlusion and then calls
-     * BuildGameMesh() with the analogous data.
+     * Builds the voxel mesh from the given color data.
      * @param data
-     *      - null if no voxel, else the voxel's color. An intermediate form between the model's original file format and the .voxel.
+     *      - null if no voxel, else the voxel's color.
      * @return the mesh data using integer (0,0,0)-indexed vertices and color pallet-indexed colors.
      */
     public static VoxelData BuildVoxelMesh(Color[][][] data){
-        int xLen = data.length;
-        int yLen = data[0].length;
-        int zLen = data[0][0].length;
+        return BuildVoxelMesh(VoxelGrid.FromColors(data));
+    }
+
+    /**
+     * Builds the voxel mesh from the given voxel grid with the bitmask mesher, see VoxelMesher.
+     * @param grid
+     *      - the voxel colors. An intermediate form between the model's original file format and the .voxel.
+     * @return the mesh data using integer (0,0,0)-indexed vertices and color pallet-indexed colors.
+     */
+    public static VoxelData BuildVoxelMesh(VoxelGrid grid){
+        if(PARALLEL_MESHING) return VoxelMesher.BuildVoxelMeshParallel(grid);
+        return VoxelMesher.BuildVoxelMesh(grid);
+    }
+
+    /**
+     * Builds the voxel mesh from the given voxel grid. Packages into Face array format, calculates ambient occlusion and then calls
+     * BuildGameMesh() with the analogous data. Kept as the reference output for VoxelMesher, see VoxelMesherTest.
+     * @param grid
+     *      - the voxel colors. An intermediate form between the model's original file format and the .voxel.
+     * @return the mesh data using integer (0,0,0)-indexed vertices and color pallet-indexed colors.
+     */
+    public static VoxelData BuildVoxelMeshFaces(VoxelGrid grid){
+        int xLen = grid.xLen;
+        int yLen = grid.yLen;
+        int zLen = grid.zLen;
 
         int voxelCount = 0;
         Face[][][][] faceMask = new Face[6][xLen][yLen][zLen];
         for(int x = 0; x < xLen; x++){
             for(int y = 0; y < yLen; y++){
                 for(int z = 0; z < zLen; z++){
-                    if(data[x][y][z] == null) continue;
+                    int color = grid.Get(x, y, z);
+                    if(color == 0) continue;
                     voxelCount++;
                     
-                    if(z == 0 || data[x][y][z - 1] == null) 
-                        faceMask[BACK][x][y][z] = new Face(data[x][y][z].rgba_8_8_8_8, x, y, z, 1, 1);
-                    if(z == zLen - 1 || data[x][y][z + 1] == null) 
-                        faceMask[FRONT][x][y][z] = new Face(data[x][y][z].rgba_8_8_8_8, x, y, z, 1, 1);
+                    if(z == 0 || !grid.IsSolid(x, y, z - 1)) 
+                        faceMask[BACK][x][y][z] = new Face(color, x, y, z, 1, 1);
+                    if(z == zLen - 1 || !grid.IsSolid(x, y, z + 1)) 
+                        faceMask[FRONT][x][y][z] = new Face(color, x, y, z, 1, 1);
                     
-                    if(x == 0 || data[x - 1][y][z] == null) 
-                        faceMask[LEFT][x][y][z] = new Face(data[x][y][z].rgba_8_8_8_8, x, y, z, 1, 1);
-                    if(x == xLen - 1 || data[x + 1][y][z] == null) 
-                        faceMask[RIGHT][x][y][z] = new Face(data[x][y][z].rgba_8_8_8_8, x, y, z, 1, 1);
+                    if(x == 0 || !grid.IsSolid(x - 1, y, z)) 
+                        faceMask[LEFT][x][y][z] = new Face(color, x, y, z, 1, 1);
+                    if(x == xLen - 1 || !grid.IsSolid(x + 1, y, z)) 
+                        faceMask[RIGHT][x][y][z] = new Face(color, x, y, z, 1, 1);
                     
-                    if(y == 0 || data[x][y - 1][z] == null) 
-                        faceMask[BOTTOM][x][y][z] = new Face(data[x][y][z].rgba_8_8_8_8, x, y, z, 1, 1);
-                    if(y == yLen - 1 || data[x][y + 1][z] == null) 
-                        faceMask[TOP][x][y][z] = new Face(data[x][y][z].rgba_8_8_8_8, x, y, z, 1, 1);
+                    if(y == 0 || !grid.IsSolid(x, y - 1, z)) 
+                        faceMask[BOTTOM][x][y][z] = new Face(color, x, y, z, 1, 1);
+                    if(y == yLen - 1 || !grid.IsSolid(x, y + 1, z)) 
+                        faceMask[TOP][x][y][z] = new Face(color, x, y, z, 1, 1);
                 }
             }
         }
@@ -260,7 +599,7 @@ public class VoxelPackager {
                             for(int u = -1; u <= 1; u++){
                                 for(int v = -1; v <= 1; v++){
                                     if(x + u < 0 || x + u >= xLen || z + v < 0 || z + v >= zLen) continue;
-                                    neighbors[u + 1][v + 1] = data[x + u][y + 1][z + v] != null ? true : false;
+                                    neighbors[u + 1][v + 1] = grid.IsSolid(x + u, y + 1, z + v);
                                 }
                             }
                         }
@@ -269,7 +608,7 @@ public class VoxelPackager {
                             for(int u = -1; u <= 1; u++){
                                 for(int v = -1; v <= 1; v++){
                                     if(y + u < 0 || y + u >= yLen || z + v < 0 || z + v >= zLen) continue;
-                                    neighbors[u + 1][v + 1] = data[x - 1][y + u][z + v] != null ? true : false;
+                                    neighbors[u + 1][v + 1] = grid.IsSolid(x - 1, y + u, z + v);
                                 }
                             }
                             if(y == 0) face.ao[0] = face.ao[3] = 2;
@@ -279,7 +618,7 @@ public class VoxelPackager {
                             for(int u = -1; u <= 1; u++){
                                 for(int v = -1; v <= 1; v++){
                                     if(x + u < 0 || x + u >= xLen || y + v < 0 || y + v >= yLen) continue;
-                                    neighbors[u + 1][v + 1] = data[x + u][y + v][z - 1] != null ? true : false;
+                                    neighbors[u + 1][v + 1] = grid.IsSolid(x + u, y + v, z - 1);
                                 }
                             }
                             if(y == 0) face.ao[0] = face.ao[1] = 2;
@@ -362,7 +701,7 @@ public class VoxelPackager {
         }
 
         int[] faceIndex = new int[6];
-        int[][] vertices = new int[faces.size() * 4][3];
+        int[] positions = new int[faces.size() * 12];
         int[] indices = new int[faces.size() * 6];
         int[] colors = new int[faces.size() * 4];
         int[] amientOcclusion = new int[faces.size() * 4];
@@ -373,40 +712,40 @@ public class VoxelPackager {
             int vertIndex = (faceOffsets[k] + faceIndex[k]) * 4;
             int triIndex = (faceOffsets[k] + faceIndex[k]) * 6;
             if(k == TOP){
-                vertices[vertIndex + 0] = new int[]{ x, y + 1, z };
-                vertices[vertIndex + 1] = new int[]{ x + du, y + 1, z };
-                vertices[vertIndex + 2] = new int[]{ x + du, y + 1, z + dv };
-                vertices[vertIndex + 3] = new int[]{ x, y + 1, z + dv};
+                SetPosition(positions, vertIndex + 0, x, y + 1, z);
+                SetPosition(positions, vertIndex + 1, x + du, y + 1, z);
+                SetPosition(positions, vertIndex + 2, x + du, y + 1, z + dv);
+                SetPosition(positions, vertIndex + 3, x, y + 1, z + dv);
             }
             if(k == BOTTOM){
-                vertices[vertIndex + 0] = new int[]{ x, y, z };
-                vertices[vertIndex + 3] = new int[]{ x + du, y, z };
-                vertices[vertIndex + 2] = new int[]{ x + du, y, z + dv };
-                vertices[vertIndex + 1] = new int[]{ x, y, z + dv};
+                SetPosition(positions, vertIndex + 0, x, y, z);
+                SetPosition(positions, vertIndex + 3, x + du, y, z);
+                SetPosition(positions, vertIndex + 2, x + du, y, z + dv);
+                SetPosition(positions, vertIndex + 1, x, y, z + dv);
             }
             if(k == LEFT){
-                vertices[vertIndex + 0] = new int[]{ x, y, z };
-                vertices[vertIndex + 1] = new int[]{ x, y + du, z };
-                vertices[vertIndex + 2] = new int[]{ x, y + du, z + dv };
-                vertices[vertIndex + 3] = new int[]{ x, y, z + dv};
+                SetPosition(positions, vertIndex + 0, x, y, z);
+                SetPosition(positions, vertIndex + 1, x, y + du, z);
+                SetPosition(positions, vertIndex + 2, x, y + du, z + dv);
+                SetPosition(positions, vertIndex + 3, x, y, z + dv);
             }
             if(k == RIGHT){
-                vertices[vertIndex + 0] = new int[]{ x + 1, y, z };
-                vertices[vertIndex + 3] = new int[]{ x + 1, y + du, z };
-                vertices[vertIndex + 2] = new int[]{ x + 1, y + du, z + dv };
-                vertices[vertIndex + 1] = new int[]{ x + 1, y, z + dv};
+                SetPosition(positions, vertIndex + 0, x + 1, y, z);
+                SetPosition(positions, vertIndex + 3, x + 1, y + du, z);
+                SetPosition(positions, vertIndex + 2, x + 1, y + du, z + dv);
+                SetPosition(positions, vertIndex + 1, x + 1, y, z + dv);
             }
             if(k == BACK){
-                vertices[vertIndex + 0] = new int[]{ x, y, z };
-                vertices[vertIndex + 1] = new int[]{ x + du, y, z };
-                vertices[vertIndex + 2] = new int[]{ x + du, y + dv, z };
-                vertices[vertIndex + 3] = new int[]{ x, y + dv, z };
+                SetPosition(positions, vertIndex + 0, x, y, z);
+                SetPosition(positions, vertIndex + 1, x + du, y, z);
+                SetPosition(positions, vertIndex + 2, x + du, y + dv, z);
+                SetPosition(positions, vertIndex + 3, x, y + dv, z);
             }
             if(k == FRONT){
-                vertices[vertIndex + 0] = new int[]{ x, y, z + 1 };
-                vertices[vertIndex + 3] = new int[]{ x + du, y, z + 1 };
-                vertices[vertIndex + 2] = new int[]{ x + du, y + dv, z + 1 };
-                vertices[vertIndex + 1] = new int[]{ x, y + dv, z + 1 };
+                SetPosition(positions, vertIndex + 0, x, y, z + 1);
+                SetPosition(positions, vertIndex + 3, x + du, y, z + 1);
+                SetPosition(positions, vertIndex + 2, x + du, y + dv, z + 1);
+                SetPosition(positions, vertIndex + 1, x, y + dv, z + 1);
             }
 
             amientOcclusion[vertIndex + 0] = face.ao[0];
@@ -437,7 +776,13 @@ public class VoxelPackager {
             }
             faceIndex[k]++;
         }
-        return new VoxelData(0, vertices, indices, faceOffsets, faceCounts, colors, amientOcclusion);
+        return new VoxelData(0, positions, indices, faceOffsets, faceCounts, colors, amientOcclusion);
+    }
+
+    private static void SetPosition(int[] positions, int vertex, int x, int y, int z){
+        positions[vertex * 3 + 0] = x;
+        positions[vertex * 3 + 1] = y;
+        positions[vertex * 3 + 2] = z;
     }
 
     private static class Face{
@@ -502,7 +847,8 @@ public class VoxelPackager {
     }
 
     /**
-     * Saves the voxel mesh data as a .voxel file.
+     * Saves the voxel mesh data as a binary .voxel file (see ReadVoxelMesh() for the layout), along with its color histogram.
+     * Throws if a file cannot be written, so the model is not recorded as packaged.
      * @param path
      *      - the path, relative to //resources, including the .voxel file extension.
      * @param data
@@ -510,6 +856,224 @@ public class VoxelPackager {
      */
     public static void SaveVoxelMeshData(String path, VoxelData data){
         String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
+
+        String modelName = path.replace(".voxel", "");
+        modelName = modelName.substring(modelName.lastIndexOf("\\") + 1, modelName.length());
+        ByteBuffer buffer = EncodeVoxelMesh(modelName, data);
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new Error("could not save file " + filePath + " to the system", e);
+        }
+        SaveColorHistogram(ColorHistogramPath(path), data);
+    }
+
+    /**
+     * @return the path of the color histogram of the .voxel file.
+     */
+    public static String ColorHistogramPath(String voxelPath){
+        return voxelPath.substring(0, voxelPath.length() - ".voxel".length()) + COLOR_HISTOGRAM_EXTENSION;
+    }
+
+    /**
+     * Saves the number of vertices of each color of the mesh and its levels of detail, so the color palette can be built
+     * without decoding the mesh (see VoxelLoader.BuildPalette()). The file holds little-endian ints: the number of colors,
+     * then each color in the rgba_8888 format followed by its count, in color order.
+     * @param path
+     *      - the path, relative to //resources, including the .colors file extension.
+     * @param data
+     *      - the voxel mesh data, with its colors in the rgba_8888 format.
+     */
+    public static void SaveColorHistogram(String path, VoxelData data){
+        IntIntMap counts = new IntIntMap(256);
+        for(int color : data.colors) counts.Add(color, 1);
+        for(VoxelData lod : data.lods){
+            for(int color : lod.colors) counts.Add(color, 1);
+        }
+        int[] colors = counts.Keys();
+        Arrays.sort(colors);
+
+        ByteBuffer buffer = ByteBuffer.allocate(4 + 8 * colors.length).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(colors.length);
+        for(int color : colors) buffer.putInt(color).putInt(counts.Get(color, 0));
+        buffer.flip();
+
+        String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining()) channel.write(buffer);
+        } catch (IOException e) {
+            throw new Error("could not save file " + filePath + " to the system", e);
+        }
+    }
+
+    /**
+     * Adds the colors of a histogram written by SaveColorHistogram() to the palette builder.
+     * @param buffer
+     *      - the file's contents, in little-endian byte order.
+     * @param path
+     *      - the file's path, for error messages.
+     */
+    public static void ReadColorHistogram(ByteBuffer buffer, String path, PaletteBuilder builder){
+        int colorCount = buffer.remaining() >= 4 ? buffer.getInt(0) : -1;
+        if(colorCount < 0 || buffer.remaining() != 4 + 8L * colorCount) throw new Error("color histogram " + path + " is corrupted");
+        for(int i = 0; i < colorCount; i++) builder.AddColor(buffer.getInt(4 + 8 * i), buffer.getInt(8 + 8 * i));
+    }
+
+    /**
+     * Encodes the voxel mesh data in the binary .voxel layout, compressed if COMPRESS_VOXEL_FILES is set.
+     * @param name
+     *      - the model's name.
+     * @param data
+     *      - the voxel mesh data to be encoded.
+     * @return
+     *      - the encoded file contents.
+     */
+    public static ByteBuffer EncodeVoxelMesh(String name, VoxelData data){
+        return EncodeVoxelMesh(name, data, COMPRESS_VOXEL_FILES);
+    }
+
+    /**
+     * Encodes the voxel mesh data in the binary .voxel layout (see ReadVoxelMesh() for the layout).
+     * @param name
+     *      - the model's name.
+     * @param data
+     *      - the voxel mesh data to be encoded.
+     * @param compress
+     *      - whether to deflate the mesh arrays.
+     * @return
+     *      - the encoded file contents.
+     */
+    public static ByteBuffer EncodeVoxelMesh(String name, VoxelData data, boolean compress){
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        int nameLength = (nameBytes.length + 3) & ~3;
+
+        long payloadLength = 0;
+        for(int i = 0; i <= data.lods.length; i++){
+            VoxelData mesh = i == 0 ? data : data.lods[i - 1];
+            payloadLength += mesh.vertexCount * 5L + mesh.indices.length;
+        }
+        if(payloadLength * 4 > Integer.MAX_VALUE) throw new Error("voxel mesh " + name + " is too large to encode");
+        ByteBuffer payload = ByteBuffer.allocate((int)payloadLength * 4).order(ByteOrder.LITTLE_ENDIAN);
+        IntBuffer payloadInts = payload.asIntBuffer();
+        for(int i = 0; i <= data.lods.length; i++){
+            VoxelData mesh = i == 0 ? data : data.lods[i - 1];
+            payloadInts.put(mesh.positions);
+            payloadInts.put(mesh.indices);
+            payloadInts.put(mesh.colors);
+            payloadInts.put(mesh.ao);
+        }
+
+        byte[][] blocks = null;
+        int size = 12 + nameLength + 4 * (2 + 15 * (data.lods.length + 1));
+        if(compress){
+            int blockCount = (payload.capacity() + COMPRESSION_BLOCK_SIZE - 1) / COMPRESSION_BLOCK_SIZE;
+            blocks = new byte[blockCount][];
+            byte[][] result = blocks;
+            IntStream.range(0, blockCount).parallel().forEach(i -> {
+                int offset = i * COMPRESSION_BLOCK_SIZE;
+                result[i] = DeflateBlock(payload.slice(offset, Math.min(COMPRESSION_BLOCK_SIZE, payload.capacity() - offset)));
+            });
+            size += 12 + 4 * blockCount;
+            for(byte[] block : blocks) size += block.length;
+        }
+        else size += payload.capacity();
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(VOXEL_FILE_MAGIC);
+        buffer.putInt(VOXEL_FILE_VERSION);
+        buffer.putInt(nameBytes.length);
+        buffer.put(nameBytes);
+        buffer.position(12 + nameLength);
+
+        buffer.putInt(compress ? VOXEL_FLAG_COMPRESSED : 0);
+        buffer.putInt(data.lods.length);
+        for(int i = 0; i <= data.lods.length; i++){
+            VoxelData mesh = i == 0 ? data : data.lods[i - 1];
+            buffer.putInt(mesh.voxelCount);
+            buffer.putInt(mesh.vertexCount);
+            buffer.putInt(mesh.indices.length);
+            for(int k = 0; k < 6; k++) buffer.putInt(mesh.faceOffsets[k]);
+            for(int k = 0; k < 6; k++) buffer.putInt(mesh.faceCounts[k]);
+        }
+
+        if(compress){
+            buffer.putInt(payload.capacity());
+            buffer.putInt(COMPRESSION_BLOCK_SIZE);
+            buffer.putInt(blocks.length);
+            for(byte[] block : blocks) buffer.putInt(block.length);
+            for(byte[] block : blocks) buffer.put(block);
+        }
+        else buffer.put(payload);
+        buffer.position(0);
+        return buffer;
+    }
+
+    private static byte[] DeflateBlock(ByteBuffer block){
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] chunk = new byte[COMPRESSION_BLOCK_SIZE];
+        try {
+            deflater.setInput(block);
+            deflater.finish();
+            while(!deflater.finished()) result.write(chunk, 0, deflater.deflate(chunk));
+        } finally {
+            deflater.end();
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Prints the compression ratio and decode throughput of every .voxel file in the directory, compressed and not.
+     * @param directory
+     *      - the directory, relative to \\resources.
+     */
+    public static void ReportCompression(String directory){
+        File[] files = new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + directory).listFiles((dir, name) -> name.endsWith(".voxel"));
+        if(files == null) return;
+        Arrays.sort(files);
+
+        long totalRaw = 0, totalCompressed = 0;
+        double totalRawTime = 0, totalCompressedTime = 0;
+        for(File file : files){
+            String path = directory + "\\" + file.getName();
+            VoxelData mesh = LoadVoxelMesh(path);
+            ByteBuffer raw = EncodeVoxelMesh(mesh.name, mesh, false);
+            ByteBuffer compressed = EncodeVoxelMesh(mesh.name, mesh, true);
+            double rawTime = TimeDecode(raw, path);
+            double compressedTime = TimeDecode(compressed, path);
+
+            totalRaw += raw.remaining();
+            totalCompressed += compressed.remaining();
+            totalRawTime += rawTime;
+            totalCompressedTime += compressedTime;
+            System.out.println(file.getName() + ": " + String.valueOf(raw.remaining()) + " -> " + String.valueOf(compressed.remaining()) + " bytes, ratio " + String.format("%.2f", (double)raw.remaining() / compressed.remaining())
+                + ", decode " + String.format("%.1f", raw.remaining() / compressedTime / 1000000.0) + " MB/s (uncompressed " + String.format("%.1f", raw.remaining() / rawTime / 1000000.0) + " MB/s)");
+        }
+        if(totalCompressed == 0) return;
+        System.out.println("total: " + String.valueOf(totalRaw) + " -> " + String.valueOf(totalCompressed) + " bytes, ratio " + String.format("%.2f", (double)totalRaw / totalCompressed)
+            + ", decode " + String.format("%.1f", totalRaw / totalCompressedTime / 1000000.0) + " MB/s (uncompressed " + String.format("%.1f", totalRaw / totalRawTime / 1000000.0) + " MB/s)");
+    }
+
+    /**
+     * @return the average time to decode the encoded mesh, in seconds, after a few untimed decodes to warm up.
+     */
+    private static double TimeDecode(ByteBuffer encoded, String source){
+        for(int i = 0; i < 3; i++) ReadVoxelMesh(encoded, source);
+        long startTime = System.nanoTime();
+        for(int i = 0; i < DECODE_ITERATIONS; i++) ReadVoxelMesh(encoded, source);
+        return (System.nanoTime() - startTime) / 1000000000.0 / DECODE_ITERATIONS;
+    }
+
+    /**
+     * Saves the voxel mesh data in the legacy text .voxel format, which is still readable by LoadVoxelMesh().
+     * @param path
+     *      - the path, relative to //resources, including the .voxel file extension.
+     * @param data
+     *      - the voxel mesh data to be saved.
+     */
+    public static void SaveVoxelMeshDataText(String path, VoxelData data){
+        String filePath  = new File("").getAbsolutePath() + Main.RESOURCE_PATH + path;
         BufferedWriter writer = null;
         try{
             writer = new BufferedWriter(new FileWriter(filePath));
@@ -523,7 +1087,7 @@ public class VoxelPackager {
             writer.write("$ voxel_count\n");
             writer.write(String.valueOf(data.voxelCount) + "\n");
             writer.write("$ vertex_count\n");
-            writer.write(String.valueOf(data.vertices.length) + "\n");
+            writer.write(String.valueOf(data.vertexCount) + "\n");
             writer.write("$ triangle_count\n");
             writer.write(String.valueOf(data.indices.length / 3) + "\n");
             writer.write("$ face_offsets\n");
@@ -535,8 +1099,8 @@ public class VoxelPackager {
 
             //model data
             writer.write("$ vertices\n");
-            for(int i = 0; i < data.vertices.length; i++){
-                writer.write(String.valueOf(data.vertices[i][0]) + " " + String.valueOf(data.vertices[i][1]) + " " + String.valueOf(data.vertices[i][2]) + "\n");
+            for(int i = 0; i < data.vertexCount; i++){
+                writer.write(String.valueOf(data.positions[i * 3]) + " " + String.valueOf(data.positions[i * 3 + 1]) + " " + String.valueOf(data.positions[i * 3 + 2]) + "\n");
             }
             writer.write("$ indices\n");
             for(int i = 0; i < data.indices.length; i += 3){
@@ -547,8 +1111,8 @@ public class VoxelPackager {
                 writer.write(String.valueOf(data.colors[i]) + "\n");
             }
             writer.write("$ ambient_occlusion\n");
-            for(int i = 0; i < data.ambientOcclusion.length; i++){
-                writer.write(String.valueOf(data.ambientOcclusion[i]) + "\n");
+            for(int i = 0; i < data.ao.length; i++){
+                writer.write(String.valueOf(data.ao[i]) + "\n");
             }
             writer.close();
 
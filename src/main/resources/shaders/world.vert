@@ -13,9 +13,8 @@
 #define NORMAL_BACK vec3(0.0, 0.0, -1.0);
 #define NORMAL_FRONT vec3(0.0, 0.0, 1.0);
 
-layout (location = 0) in vec3 vertexPosition;
-layout (location = 1) in float vertexData; // color (8 bits) | faceDirection (3 bits) |  ...
-layout (location = 2) in float instanceData; // chunk x (9 bits) | chunk z (9 bits) | ...
+layout (location = 0) in ivec2 vertexData; // z (16 bits) | x (16 bits), color (8 bits) | faceDirection (3 bits) | ao (2 bits) | ... | y (16 bits)
+layout (location = 2) in int instanceData; // chunk x (9 bits) | chunk z (9 bits) | ...
 
 layout(std140, binding = 0) uniform windowInfo{
     int windowX;
@@ -49,9 +48,14 @@ flat out int faceDirection;
 
 void main()
 {
-    //retrieve integer bits of attributes
-    int _vertexData = floatBitsToInt(vertexData); 
-    int _instanceData = floatBitsToInt(instanceData);
+    //unpack the vertex position, stored in 1/16ths of a world unit
+    int _vertexData = vertexData.y;
+    int _instanceData = instanceData;
+    vec3 vertexPosition = vec3(
+        float(vertexData.x & 0xFFFF),
+        float(_vertexData & 0xFFFF),
+        float((vertexData.x >> 16u) & 0xFFFF)
+    ) / 16.0;
 
     vec3 chunkPos = vec3(
         float(int((_instanceData >> 23u) & 0x1FFu)), 0.0,
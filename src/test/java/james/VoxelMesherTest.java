@@ -0,0 +1,86 @@
+package james;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Golden output test of VoxelMesher: both its sequential and parallel meshing must produce the same VoxelData as the Face based
+ * mesher, VoxelPackager.BuildVoxelMeshFaces(), face for face.
+ */
+public class VoxelMesherTest {
+    private static final long SEED = 20240611L;
+    private static final int RANDOM_GRIDS = 40;
+    private static final int[] COLORS = { 0xFF0000FF, 0x00FF00FF, 0x0000FFFF };
+
+    @Test
+    public void MatchesOnShippedModels(){
+        File[] files = new File(new File("").getAbsolutePath() + Main.RESOURCE_PATH + "models").listFiles((dir, name) -> name.endsWith(".ply") || name.endsWith(".vox"));
+        assertNotNull("the models directory is missing", files);
+        assertTrue("the models directory has no .ply or .vox models", files.length > 0);
+
+        for(File file : files){
+            String path = "models\\" + file.getName();
+            VoxelGrid[] models = path.endsWith(".vox") ? VoxImporter.ImportVox(path) : new VoxelGrid[]{ PlyImporter.ImportPly(path) };
+            for(int i = 0; i < models.length; i++) AssertMatches(file.getName() + " model " + String.valueOf(i), models[i]);
+        }
+    }
+
+    @Test
+    public void MatchesOnEmptyGrid(){
+        AssertMatches("empty grid", new VoxelGrid(5, 6, 7));
+    }
+
+    @Test
+    public void MatchesOnFullGrid(){
+        //z spans two words of a column, so faces are found across the word boundary
+        VoxelGrid grid = new VoxelGrid(6, 5, 70);
+        for(int i = 0; i < grid.colors.length; i++) grid.colors[i] = COLORS[0];
+        AssertMatches("full grid", grid);
+    }
+
+    @Test
+    public void MatchesOnSingleVoxel(){
+        VoxelGrid grid = new VoxelGrid(1, 1, 1);
+        grid.colors[0] = COLORS[0];
+        AssertMatches("1-voxel grid", grid);
+
+        grid = new VoxelGrid(3, 3, 3);
+        grid.colors[grid.Index(1, 1, 1)] = COLORS[1];
+        AssertMatches("1 voxel in a 3x3x3 grid", grid);
+    }
+
+    @Test
+    public void MatchesOnRandomGrids(){
+        Random random = new Random(SEED);
+        for(int i = 0; i < RANDOM_GRIDS; i++){
+            VoxelGrid grid = new VoxelGrid(1 + random.nextInt(24), 1 + random.nextInt(24), 1 + random.nextInt(80));
+            float density = random.nextFloat();
+            int colorCount = 1 + random.nextInt(COLORS.length);
+            for(int j = 0; j < grid.colors.length; j++){
+                if(random.nextFloat() < density) grid.colors[j] = COLORS[random.nextInt(colorCount)];
+            }
+            AssertMatches("random grid " + String.valueOf(i) + " of seed " + String.valueOf(SEED), grid);
+        }
+    }
+
+    private static void AssertMatches(String name, VoxelGrid grid){
+        VoxelData expected = VoxelPackager.BuildVoxelMeshFaces(grid);
+        AssertMeshesEqual(name, expected, VoxelMesher.BuildVoxelMesh(grid));
+        AssertMeshesEqual(name + ", in parallel", expected, VoxelMesher.BuildVoxelMeshParallel(grid));
+    }
+
+    private static void AssertMeshesEqual(String name, VoxelData expected, VoxelData actual){
+        assertEquals(name + ": voxel count", expected.voxelCount, actual.voxelCount);
+        assertEquals(name + ": vertex count", expected.vertexCount, actual.vertexCount);
+        assertArrayEquals(name + ": positions", expected.positions, actual.positions);
+        assertArrayEquals(name + ": indices", expected.indices, actual.indices);
+        assertArrayEquals(name + ": colors", expected.colors, actual.colors);
+        assertArrayEquals(name + ": ambient occlusion", expected.ao, actual.ao);
+        assertArrayEquals(name + ": face offsets", expected.faceOffsets, actual.faceOffsets);
+        assertArrayEquals(name + ": face counts", expected.faceCounts, actual.faceCounts);
+    }
+}